@@ -1,6 +1,15 @@
 package net.minecraftforge.gradle.common;
 
+import net.minecraftforge.gradle.common.task.CleanForgeGradleCache;
+import net.minecraftforge.gradle.common.util.CacheCleaner;
+import net.minecraftforge.gradle.common.util.CacheReport;
+import net.minecraftforge.gradle.common.util.DigestCache;
 import net.minecraftforge.gradle.common.util.EnvironmentChecks;
+import net.minecraftforge.gradle.common.util.MappingIndex;
+import net.minecraftforge.gradle.common.util.MinecraftExtension;
+import net.minecraftforge.gradle.common.util.ToolGovernor;
+import net.minecraftforge.gradle.common.util.Trace;
+import net.minecraftforge.gradle.common.util.ZipCompression;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.repositories.MavenArtifactRepository;
@@ -12,6 +21,26 @@ public class FGBasePlugin implements Plugin<Project> {
     public void apply(Project project) {
 
         EnvironmentChecks.checkEnvironment(project);
+        DigestCache.reportOnBuildFinished(project.getGradle(), project.getLogger());
+        CacheCleaner.register(project);
+        CacheReport.register(project.getGradle(), project.getLogger());
+        ToolGovernor.register(project.getGradle(), project.getLogger());
+        ZipCompression.register(project.getGradle());
+        MappingIndex.register(project);
+        Trace.register(project.getGradle(), project.getLogger());
+
+        project.getTasks().register(CleanForgeGradleCache.TASK_NAME, CleanForgeGradleCache.class);
+
+        // Registered before the other plugins' hooks, so the policies are set before any setup step writes a jar or forks a tool.
+        project.afterEvaluate(p -> {
+            MinecraftExtension extension = p.getExtensions().findByType(MinecraftExtension.class);
+            if (extension != null) {
+                // These are JVM wide, so only projects that set them apply them, and they must agree.
+                ZipCompression.INTERMEDIATE.configure(p.getPath(), extension.getIntermediateCompression().getOrNull());
+                ZipCompression.OUTPUT.configure(p.getPath(), extension.getOutputCompression().getOrNull());
+                ToolGovernor.configure(p.getPath(), extension.getToolMemory().getOrNull(), extension.getToolHeap().getOrNull(), extension.getToolCpus().getOrNull());
+            }
+        });
 
         // Add known repos: Forge, Mojang, Maven Central
 
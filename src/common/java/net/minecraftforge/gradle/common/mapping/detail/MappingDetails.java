@@ -22,23 +22,21 @@ package net.minecraftforge.gradle.common.mapping.detail;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.function.BiConsumer;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
-import de.siegmar.fastcsv.reader.NamedCsvReader;
-import de.siegmar.fastcsv.reader.NamedCsvRow;
 import net.minecraftforge.gradle.common.mapping.util.Sides;
 import net.minecraftforge.gradle.common.mapping.util.MappingStreams;
+import net.minecraftforge.gradle.common.util.MappingIndex;
 import net.minecraftforge.srgutils.IMappingFile;
 
 import static net.minecraftforge.gradle.common.mapping.detail.IMappingDetail.*;
@@ -83,14 +81,13 @@ public class MappingDetails {
      * Converts a `mapping.zip` into an {@link IMappingDetail}
      */
     public static IMappingDetail fromZip(File input) throws IOException {
-        try (ZipFile zip = new ZipFile(input)) {
-            Map<String, INode> classes = readEntry(zip, "classes.csv");
-            Map<String, INode> fields = readEntry(zip, "fields.csv");
-            Map<String, INode> methods = readEntry(zip, "methods.csv");
-            Map<String, INode> params = readEntry(zip, "params.csv");
+        MappingIndex index = MappingIndex.load(input);
+        Map<String, INode> classes = readEntry(index, "classes.csv");
+        Map<String, INode> fields = readEntry(index, "fields.csv");
+        Map<String, INode> methods = readEntry(index, "methods.csv");
+        Map<String, INode> params = readEntry(index, "params.csv");
 
-            return new MappingDetail(classes, fields, methods, params);
-        }
+        return new MappingDetail(classes, fields, methods, params);
     }
 
     /**
@@ -167,31 +164,86 @@ public class MappingDetails {
         MappingStreams.parameters(input).map(INode::of).forEach(node -> consumer.accept(node.getOriginal(), node));
     }
 
-    private static Map<String, INode> readEntry(ZipFile zip, String entryName) throws IOException {
-        Optional<? extends ZipEntry> entry = zip.stream().filter(e -> Objects.equals(entryName, e.getName())).findFirst();
+    private static Map<String, INode> readEntry(MappingIndex index, String entryName) {
+        MappingIndex.Section section = index.getSection(entryName);
 
-        if (!entry.isPresent()) return Collections.emptyMap();
+        if (section == null) return Collections.emptyMap();
 
-        Map<String, INode> nodes = new HashMap<>();
+        return new SectionMap(section);
+    }
 
-        try (NamedCsvReader reader = NamedCsvReader.builder().build(new InputStreamReader(zip.getInputStream(entry.get())))) {
-            Set<String> headers = reader.getHeader();
-            String obf = headers.contains("searge") ? "searge" : "param";
+    /**
+     * Read only view of a CSV in a {@link MappingIndex}. Lookups binary search the index, and nodes are only created for
+     * the rows asked for.
+     */
+    private static class SectionMap extends AbstractMap<String, INode> {
+        private final MappingIndex.Section section;
 
-            reader.forEach(row -> {
-                String obfuscated = decodeClass(row.getField(obf));
-                String name = decodeClass(get(headers, row, "name", obfuscated));
-                String side = get(headers, row, "side", Sides.BOTH);
-                String javadoc = decodeJavadoc(get(headers, row, "desc", ""));
+        private SectionMap(MappingIndex.Section section) {
+            this.section = section;
+        }
 
-                nodes.put(obfuscated, INode.of(obfuscated, name, side, javadoc));
-            });
+        private INode getNode(int row) {
+            String obfuscated = decodeClass(section.getObf(row));
+            String name = decodeClass(section.hasName() ? section.getMapped(row) : obfuscated);
+            String side = section.hasSide() ? section.getSide(row) : Sides.BOTH;
+            String javadoc = decodeJavadoc(section.hasDesc() ? section.getDesc(row) : "");
+            return INode.of(obfuscated, name, side, javadoc);
         }
 
-        return nodes;
-    }
+        private int find(Object key) {
+            if (!(key instanceof String))
+                return -1;
+            // Classes are stored in '.' form, everything else as is
+            String name = (String)key;
+            int row = section.find(encodeClass(name));
+            return row != -1 || name.indexOf('/') == -1 ? row : section.find(name);
+        }
 
-    private static String get(Set<String> headers, NamedCsvRow row, String name, String defaultValue) {
-        return headers.contains(name) ? row.getField(name) : defaultValue;
+        @Override
+        public INode get(Object key) {
+            int row = find(key);
+            return row == -1 ? null : getNode(row);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return find(key) != -1;
+        }
+
+        @Override
+        public int size() {
+            return section.size();
+        }
+
+        @Override
+        public Set<Entry<String, INode>> entrySet() {
+            return new AbstractSet<Entry<String, INode>>() {
+                @Override
+                public Iterator<Entry<String, INode>> iterator() {
+                    return new Iterator<Entry<String, INode>>() {
+                        private int row = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return row < section.size();
+                        }
+
+                        @Override
+                        public Entry<String, INode> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            INode node = getNode(row++);
+                            return new SimpleImmutableEntry<>(node.getOriginal(), node);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return section.size();
+                }
+            };
+        }
     }
 }
\ No newline at end of file
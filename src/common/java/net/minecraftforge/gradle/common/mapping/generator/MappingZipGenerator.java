@@ -30,13 +30,13 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.util.zip.ZipOutputStream;
 
 import com.google.common.base.Preconditions;
 import de.siegmar.fastcsv.writer.CsvWriter;
 import de.siegmar.fastcsv.writer.LineDelimiter;
 import de.siegmar.fastcsv.writer.QuoteStrategy;
 import net.minecraftforge.gradle.common.util.Utils;
+import net.minecraftforge.gradle.common.util.ZipWriter;
 import net.minecraftforge.gradle.common.mapping.detail.IMappingDetail;
 
 import static net.minecraftforge.gradle.common.mapping.detail.MappingDetails.encodeClass;
@@ -57,7 +57,7 @@ public class MappingZipGenerator {
             //noinspection ResultOfMethodCallIgnored
             output.getParentFile().mkdirs();
 
-        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(output));
+        try (ZipWriter zip = new ZipWriter(new FileOutputStream(output));
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zip))) {
             Supplier<CsvWriter> supplier
                 = () -> CsvWriter.builder()
@@ -81,7 +81,7 @@ public class MappingZipGenerator {
 
     private static final Comparator<IMappingDetail.INode> BY_ORIGINAL = Comparator.comparing(IMappingDetail.INode::getOriginal);
 
-    private static void writeCsvFile(Supplier<CsvWriter> writer, ZipOutputStream zipOut, String fileName, Map<String, IMappingDetail.INode> input) throws IOException {
+    private static void writeCsvFile(Supplier<CsvWriter> writer, ZipWriter zipOut, String fileName, Map<String, IMappingDetail.INode> input) throws IOException {
         Iterator<IMappingDetail.INode> nodes = input.values().stream().sorted(BY_ORIGINAL).iterator();
 
         if (nodes.hasNext()) {
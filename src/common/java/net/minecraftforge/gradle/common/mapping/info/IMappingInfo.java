@@ -25,7 +25,7 @@ import java.io.IOException;
 import java.util.function.Supplier;
 
 import net.minecraftforge.gradle.common.mapping.detail.IMappingDetail;
-import net.minecraftforge.gradle.common.mapping.detail.MappingDetails;
+import net.minecraftforge.gradle.common.util.MappingCache;
 import net.minecraftforge.gradle.common.util.func.IOSupplier;
 
 /**
@@ -55,7 +55,7 @@ public interface IMappingInfo extends Supplier<File> {
     IMappingDetail getDetails() throws IOException;
 
     static IMappingInfo of(String channel, String version, File destination) {
-        return of(channel, version, destination, () -> MappingDetails.fromZip(destination));
+        return of(channel, version, destination, () -> MappingCache.getDetails(destination));
     }
 
     static IMappingInfo of(String channel, String version, File destination, IMappingDetail detail) {
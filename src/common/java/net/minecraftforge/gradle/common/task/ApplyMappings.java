@@ -22,11 +22,10 @@ package net.minecraftforge.gradle.common.task;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.tasks.Input;
@@ -34,8 +33,11 @@ import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
+import net.minecraftforge.gradle.common.util.MappingCache;
 import net.minecraftforge.gradle.common.util.McpNames;
-import net.minecraftforge.gradle.common.util.Utils;
+import net.minecraftforge.gradle.common.util.SourceRenamer;
+import net.minecraftforge.gradle.common.util.ZipReader;
+import net.minecraftforge.gradle.common.util.ZipWriter;
 
 public class ApplyMappings extends DefaultTask {
     private final RegularFileProperty input;
@@ -53,25 +55,13 @@ public class ApplyMappings extends DefaultTask {
 
     @TaskAction
     public void apply() throws IOException {
-        McpNames names = McpNames.load(mappings.get().getAsFile());
+        McpNames names = MappingCache.getNames(mappings.get().getAsFile());
 
-        try (ZipFile zin = new ZipFile(input.get().getAsFile())) {
-            try (FileOutputStream fos = new FileOutputStream(output.get().getAsFile());
-                 ZipOutputStream out = new ZipOutputStream(fos)) {
-                zin.stream().forEach(e -> {
-                    try {
-                        out.putNextEntry(Utils.getStableEntry(e.getName()));
-                        if (!e.getName().endsWith(".java")) {
-                            IOUtils.copy(zin.getInputStream(e), out);
-                        } else {
-                            out.write(names.rename(zin.getInputStream(e), javadocs, lambdas).getBytes(StandardCharsets.UTF_8));
-                        }
-                        out.closeEntry();
-                    } catch (IOException e1) {
-                        throw new RuntimeException(e1);
-                    }
-                });
-            }
+        try (ZipReader zin = new ZipReader(input.get().getAsFile());
+             FileOutputStream fos = new FileOutputStream(output.get().getAsFile());
+             ZipWriter out = new ZipWriter(fos)) {
+            SourceRenamer.rename(zin, out, name -> name.endsWith(".java"),
+                (name, in, stream) -> names.rename(new InputStreamReader(in, StandardCharsets.UTF_8), new OutputStreamWriter(stream, StandardCharsets.UTF_8), javadocs, lambdas));
         }
     }
 
@@ -0,0 +1,47 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.task;
+
+import java.io.IOException;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.TaskAction;
+
+import net.minecraftforge.gradle.common.util.CacheCleaner;
+import net.minecraftforge.gradle.common.util.ContentStore;
+import net.minecraftforge.gradle.common.util.Utils;
+
+public class CleanForgeGradleCache extends DefaultTask {
+    public static final String TASK_NAME = "cleanForgeGradleCache";
+
+    public CleanForgeGradleCache() {
+        setGroup("ForgeGradle");
+        setDescription("Deletes unused artifacts from the ForgeGradle caches in the Gradle user home.");
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @TaskAction
+    public void run() throws IOException {
+        long reclaimed = CacheCleaner.clean(Utils.getCacheBase(getProject()).toFile(), getLogger());
+        reclaimed += ContentStore.get(getProject()).collectGarbage(getLogger());
+        getLogger().lifecycle("Reclaimed " + CacheCleaner.formatSize(reclaimed) + " from the ForgeGradle caches");
+    }
+}
@@ -44,7 +44,10 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.*;
 
+import net.minecraftforge.gradle.common.util.InProcessRunner;
 import net.minecraftforge.gradle.common.util.MavenArtifactDownloader;
+import net.minecraftforge.gradle.common.util.ToolGovernor;
+import net.minecraftforge.gradle.common.util.ToolWorkerPool;
 import org.gradle.api.tasks.Optional;
 
 import javax.annotation.Nullable;
@@ -89,33 +92,62 @@ public class JarExec extends DefaultTask {
 
         try (OutputStream log = hasLog ? new BufferedOutputStream(new FileOutputStream(logFile)) : NULL) {
             PrintWriter printer = new PrintWriter(log, true);
-            getProject().javaexec(java -> {
-                // Execute command
-                java.setArgs(filterArgs(args.get()));
-                printer.println("Args: " + java.getArgs().stream().map(m -> '"' + m +'"').collect(Collectors.joining(", ")));
-                if (getClasspath() == null)
-                    java.setClasspath(getProject().files(jar));
-                else
-                    java.setClasspath(getProject().files(jar, getClasspath()));
-                java.getClasspath().forEach(f -> printer.println("Classpath: " + f.getAbsolutePath()));
-                java.setWorkingDir(workDir);
-                printer.println("WorkDir: " + workDir);
-                java.setMain(mainClass);
+            boolean inProcess = InProcessRunner.isAllowed(mainClass);
+            List<String> jvmArgs = inProcess ? Collections.emptyList() : ToolGovernor.getJvmArgs(Collections.emptyList());
+            if (inProcess || ToolWorkerPool.isEnabled()) {
+                List<String> args = filterArgs(this.args.get());
+                List<File> classpath = new ArrayList<>();
+                classpath.add(jar);
+                if (getClasspath() != null)
+                    classpath.addAll(getClasspath().getFiles());
+                printer.println("Args: " + args.stream().map(m -> '"' + m +'"').collect(Collectors.joining(", ")));
+                if (!jvmArgs.isEmpty())
+                    printer.println("JVM Args: " + jvmArgs.stream().map(m -> '"' + m +'"').collect(Collectors.joining(", ")));
+                classpath.forEach(f -> printer.println("Classpath: " + f.getAbsolutePath()));
+                printer.println("WorkDir: " + (inProcess ? System.getProperty("user.dir") + " (in process)" : workDir.get().getAsFile() + " (worker)"));
                 printer.println("Main: " + mainClass);
                 printer.println("====================================");
-                java.setStandardOutput(new OutputStream() {
-                    @Override
-                    public void flush() throws IOException {
-                        log.flush();
-                    }
-                    @Override
-                    public void close() {}
-                    @Override
-                    public void write(int b) throws IOException {
-                        log.write(b);
-                    }
-                });
-            }).rethrowFailure().assertNormalExitValue();
+                int exit = inProcess ? InProcessRunner.run(classpath, mainClass, args, log)
+                        : ToolWorkerPool.run(classpath, jvmArgs, workDir.get().getAsFile(), mainClass, args, log);
+                if (exit != 0)
+                    throw new RuntimeException(mainClass + " finished with non-zero exit value " + exit + (hasLog ? ", see " + logFile : ""));
+            } else {
+                try (ToolGovernor.Lease lease = ToolGovernor.acquire(jar.getName(), jvmArgs)) {
+                    long start = System.currentTimeMillis();
+                    getProject().javaexec(java -> {
+                        // Execute command
+                        java.setJvmArgs(jvmArgs);
+                        java.setArgs(filterArgs(args.get()));
+                        printer.println("Args: " + java.getArgs().stream().map(m -> '"' + m +'"').collect(Collectors.joining(", ")));
+                        if (getClasspath() == null)
+                            java.setClasspath(getProject().files(jar));
+                        else
+                            java.setClasspath(getProject().files(jar, getClasspath()));
+                        java.getClasspath().forEach(f -> printer.println("Classpath: " + f.getAbsolutePath()));
+                        java.setWorkingDir(workDir);
+                        printer.println("WorkDir: " + workDir);
+                        java.setMain(mainClass);
+                        printer.println("Main: " + mainClass);
+                        printer.println("====================================");
+                        java.setStandardOutput(new OutputStream() {
+                            @Override
+                            public void flush() throws IOException {
+                                log.flush();
+                            }
+                            @Override
+                            public void close() {}
+                            @Override
+                            public void write(int b) throws IOException {
+                                log.write(b);
+                            }
+                        });
+                    }).rethrowFailure().assertNormalExitValue();
+                    ToolGovernor.record(lease, System.currentTimeMillis() - start, -1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
         }
 
         if (hasLog)
@@ -0,0 +1,323 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import org.gradle.api.Project;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evicts old artifacts from the forge_gradle caches.
+ * <p>
+ * An artifact is a file together with its {@code .input}/{@code .sha1}/{@code .md5} sidecars. Its last use is the newest
+ * modified or access time of any of those files, and {@link HashStore} refreshes the {@code .input} time on every cache hit.
+ * MCP steps keep their outputs in a directory next to a {@code lastinput.sha1}, which is what gets refreshed, so such a
+ * directory is a single artifact.
+ * Artifacts unused for {@code net.minecraftforge.gradle.cache.max_age} days (default 30) are deleted, then the least
+ * recently used ones while the cache is larger than {@code net.minecraftforge.gradle.cache.max_size} megabytes (default
+ * unlimited).
+ * <p>
+ * Every running build holds a lock file in the cache. The automatic sweep runs at most once a day, when a build finishes
+ * and no other build holds the cache, so nothing an in-flight build depends on can be evicted. Builds that start while
+ * it runs wait for it. It is disabled with {@code net.minecraftforge.gradle.cache.auto_clean=false}.
+ * <p>
+ * The {@code cleanForgeGradleCache} task sweeps on demand while builds may be running, so it only evicts what hasn't
+ * been used since the oldest running build started. It is best run on its own.
+ */
+public class CacheCleaner {
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(Long.getLong("net.minecraftforge.gradle.cache.max_age", 30));
+    private static final long MAX_SIZE = Long.getLong("net.minecraftforge.gradle.cache.max_size", 0) * 1024 * 1024;
+    private static final boolean AUTO_CLEAN = Boolean.parseBoolean(System.getProperty("net.minecraftforge.gradle.cache.auto_clean", "true"));
+    private static final long SWEEP_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final long ACCESS_GRANULARITY = TimeUnit.HOURS.toMillis(1);
+    private static final String LOCKS = ".locks";
+    private static final String LAST_CLEAN = ".last_clean";
+    private static final String SWEEP = "sweep";
+    private static final String[] SIDECARS = {".input", ".sha1", ".md5", ".stat"};
+    private static final String STEP_INPUT = "lastinput.sha1";
+    private static final Map<Gradle, FileLock> BUILD_LOCKS = new WeakHashMap<>();
+
+    /**
+     * Records that a cached artifact was just used. Cheap enough to call on every cache hit.
+     */
+    public static void recordAccess(File file) {
+        long now = System.currentTimeMillis();
+        long last = file.lastModified();
+        if (last != 0 && last < now - ACCESS_GRANULARITY)
+            file.setLastModified(now);
+    }
+
+    /**
+     * Marks the cache as in use until the build finishes, and runs the daily sweep then if one is due.
+     * Only the first project of each build does anything.
+     */
+    public static void register(Project project) {
+        Gradle gradle = project.getGradle();
+        File base = Utils.getCacheBase(project).toFile();
+        Logger logger = project.getLogger();
+        // Builds in this JVM register and sweep under this lock, so only other JVMs can hold the sweep lock here.
+        synchronized (BUILD_LOCKS) {
+            if (BUILD_LOCKS.containsKey(gradle))
+                return;
+            BUILD_LOCKS.put(gradle, lock(base, logger));
+            awaitSweep(base, logger);
+        }
+        gradle.buildFinished(result -> {
+            synchronized (BUILD_LOCKS) {
+                unlock(BUILD_LOCKS.get(gradle));
+                BUILD_LOCKS.put(gradle, null);
+                if (AUTO_CLEAN && isSweepDue(base))
+                    sweepIfIdle(base, logger);
+            }
+        });
+    }
+
+    /**
+     * Waits for a sweep another JVM is running. Our lock is already held, so no sweep can start after this.
+     */
+    private static void awaitSweep(File base, Logger logger) {
+        File file = new File(base, LOCKS + File.separator + SWEEP);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                logger.lifecycle("Waiting for another build to finish cleaning " + base);
+                lock = channel.lock();
+            }
+            lock.release();
+        } catch (IOException e) {
+            logger.warn("Failed to check for a cache sweep in " + base, e);
+        }
+    }
+
+    /**
+     * Sweeps the cache if no other build holds it. Builds starting meanwhile wait in {@link #awaitSweep}.
+     */
+    private static void sweepIfIdle(File base, Logger logger) {
+        File file = new File(base, LOCKS + File.separator + SWEEP);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null || getOldestBuild(base) != Long.MAX_VALUE)
+                return; // Another build is sweeping or running, try again when the next one finishes.
+            clean(base, logger, System.currentTimeMillis());
+            ContentStore.get(new File(base, "content_store")).collectGarbage(logger);
+            markSwept(base);
+        } catch (IOException e) {
+            logger.warn("Failed to clean cache " + base, e);
+        }
+    }
+
+    private static FileLock lock(File base, Logger logger) {
+        File file = new File(base, LOCKS + File.separator + System.currentTimeMillis() + '-' + UUID.randomUUID() + ".lock");
+        try {
+            file.getParentFile().mkdirs();
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return channel.lock();
+        } catch (IOException e) {
+            logger.warn("Failed to lock cache " + base + ", it may be cleaned while in use", e);
+            return null;
+        }
+    }
+
+    private static void unlock(FileLock lock) {
+        if (lock == null)
+            return;
+        try {
+            lock.release();
+            lock.channel().close();
+        } catch (IOException e) {
+            // Stale locks are cleaned up by the next sweep.
+        }
+    }
+
+    private static boolean isSweepDue(File base) {
+        File marker = new File(base, LAST_CLEAN);
+        return !marker.exists() || marker.lastModified() <= System.currentTimeMillis() - SWEEP_INTERVAL;
+    }
+
+    private static void markSwept(File base) throws IOException {
+        File marker = new File(base, LAST_CLEAN);
+        Utils.createEmpty(marker);
+        marker.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * @return The start time of the oldest build still holding a lock, or {@link Long#MAX_VALUE} if there is none.
+     */
+    private static long getOldestBuild(File base) throws IOException {
+        long oldest = Long.MAX_VALUE;
+        File[] locks = new File(base, LOCKS).listFiles((dir, name) -> name.endsWith(".lock"));
+        if (locks == null)
+            return oldest;
+
+        for (File file : locks) {
+            boolean held;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                held = lock == null;
+                if (lock != null)
+                    lock.release();
+            } catch (OverlappingFileLockException e) {
+                held = true; // Held by a build in this JVM
+            } catch (IOException e) {
+                held = false;
+            }
+
+            if (held) {
+                String name = file.getName();
+                try {
+                    oldest = Math.min(oldest, Long.parseLong(name.substring(0, name.indexOf('-'))));
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    oldest = 0; // Unknown start, so protect everything.
+                }
+            } else {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Sweeps the cache rooted at the given forge_gradle cache directory, sparing anything used since the oldest
+     * running build started.
+     * @return The number of bytes reclaimed.
+     */
+    public static long clean(File base, Logger logger) throws IOException {
+        if (!base.exists())
+            return 0;
+        return clean(base, logger, Math.min(getOldestBuild(base), System.currentTimeMillis()));
+    }
+
+    private static long clean(File base, Logger logger, long inUse) throws IOException {
+        long now = System.currentTimeMillis();
+
+        Map<String, CachedArtifact> artifacts = new HashMap<>();
+        Path root = base.toPath();
+        List<Path> paths = new ArrayList<>();
+        Set<Path> steps = new HashSet<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path path : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Path relative = root.relativize(path);
+                String first = relative.getName(0).toString();
+                if (relative.getNameCount() == 1 || LOCKS.equals(first) || "content_store".equals(first))
+                    continue; // Our own bookkeeping, and the content store collects its own garbage.
+                paths.add(path);
+                if (STEP_INPUT.equals(path.getFileName().toString()))
+                    steps.add(path.getParent());
+            }
+        }
+        for (Path path : paths)
+            artifacts.computeIfAbsent(getArtifactKey(root, steps, path), k -> new CachedArtifact()).add(path);
+
+        List<CachedArtifact> candidates = new ArrayList<>();
+        long total = 0;
+        for (CachedArtifact artifact : artifacts.values()) {
+            total += artifact.size;
+            if (artifact.lastUsed < inUse)
+                candidates.add(artifact);
+        }
+        candidates.sort(Comparator.comparingLong(a -> a.lastUsed));
+
+        long reclaimed = 0;
+        int count = 0;
+        for (CachedArtifact artifact : candidates) {
+            boolean expired = artifact.lastUsed < now - MAX_AGE;
+            boolean overBudget = MAX_SIZE > 0 && total > MAX_SIZE;
+            if (!expired && !overBudget)
+                break; // Sorted oldest first, so nothing after this is either.
+            for (Path path : artifact.files)
+                Files.deleteIfExists(path);
+            total -= artifact.size;
+            reclaimed += artifact.size;
+            count++;
+        }
+
+        deleteEmptyDirectories(base);
+        logger.info("Cache cleaner: removed " + count + " artifacts, reclaimed " + formatSize(reclaimed) + " from " + base);
+        return reclaimed;
+    }
+
+    private static String getArtifactKey(Path root, Set<Path> steps, Path path) {
+        for (Path dir = path.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+            if (steps.contains(dir))
+                return dir.toString() + File.separator;
+        }
+        String name = path.toString();
+        for (String sidecar : SIDECARS) {
+            if (name.endsWith(sidecar))
+                return name.substring(0, name.length() - sidecar.length());
+        }
+        return name;
+    }
+
+    private static void deleteEmptyDirectories(File dir) {
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children == null)
+            return;
+        for (File child : children) {
+            deleteEmptyDirectories(child);
+            String[] left = child.list();
+            if (left != null && left.length == 0)
+                child.delete();
+        }
+    }
+
+    public static String formatSize(long bytes) {
+        if (bytes < 1024 * 1024)
+            return (bytes / 1024) + "KB";
+        return String.format(Locale.ROOT, "%.1fMB", bytes / 1024.0 / 1024.0);
+    }
+
+    private static class CachedArtifact {
+        private final List<Path> files = new ArrayList<>();
+        private long size;
+        private long lastUsed;
+
+        private void add(Path path) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            files.add(path);
+            size += attrs.size();
+            lastUsed = Math.max(lastUsed, Math.max(attrs.lastModifiedTime().toMillis(), attrs.lastAccessTime().toMillis()));
+        }
+    }
+}
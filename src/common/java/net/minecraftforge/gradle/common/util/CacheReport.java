@@ -0,0 +1,229 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.management.ThreadMXBean;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * Explains every {@link HashStore} decision made during a build: which inputs changed, and what regenerating the
+ * artifact cost. Written to {@code build/reports/forgegradle/cache-report.json} in the root project, with a summary
+ * logged when the build finishes.
+ * <p>
+ * Bytes read only count files that were actually hashed, not those whose recorded hash was reused. Bytes written are
+ * the sizes of the step's declared outputs, see {@link HashStore#output(File)}. Allocations are those of the thread
+ * that checked and saved the cache, so work the step hands to other threads or forked tools is not included.
+ */
+public class CacheReport {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final List<Step> STEPS = new ArrayList<>();
+    private static final Set<Gradle> REGISTERED = Collections.newSetFromMap(new WeakHashMap<>());
+
+    /**
+     * Records the outcome of a cache check. A miss is timed until {@link Step#finish()}.
+     */
+    static Step record(File target, boolean hit, Map<String, String> oldHashes, Map<String, String> newHashes, long bytesRead) {
+        Step step = new Step(target, hit, bytesRead);
+        if (!hit) {
+            Set<String> keys = new TreeSet<>(oldHashes.keySet());
+            keys.addAll(newHashes.keySet());
+            for (String key : keys) {
+                String oldHash = oldHashes.get(key);
+                String newHash = newHashes.get(key);
+                if (oldHash == null || !oldHash.equals(newHash))
+                    step.changed.add(new Change(key, oldHash, newHash));
+            }
+            step.firstRun = oldHashes.isEmpty();
+        }
+        synchronized (STEPS) {
+            STEPS.add(step);
+        }
+        return step;
+    }
+
+    /**
+     * Writes the report when the build finishes, once per build no matter how many projects ask.
+     */
+    public static void register(Gradle gradle, Logger logger) {
+        synchronized (REGISTERED) {
+            if (!REGISTERED.add(gradle))
+                return;
+        }
+        gradle.buildFinished(result -> {
+            List<Step> steps;
+            synchronized (STEPS) {
+                steps = new ArrayList<>(STEPS);
+                STEPS.clear();
+            }
+            if (steps.isEmpty())
+                return;
+            steps.forEach(Step::measureOutputs); // Outputs held in memory have been written by now
+
+            File output = new File(gradle.getRootProject().getProjectDir(), "build/reports/forgegradle/cache-report.json");
+            try {
+                output.getParentFile().mkdirs();
+                Files.write(output.toPath(), GSON.toJson(new Report(steps)).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.warn("Failed to write cache report " + output, e);
+            }
+            summarize(steps, output, logger);
+        });
+    }
+
+    private static void summarize(List<Step> steps, File output, Logger logger) {
+        List<Step> misses = new ArrayList<>();
+        for (Step step : steps) {
+            if (!step.hit)
+                misses.add(step);
+        }
+
+        String header = "ForgeGradle cache: " + (steps.size() - misses.size()) + " hits, " + misses.size() + " regenerated. Report: " + output;
+        if (misses.isEmpty()) {
+            logger.info(header);
+            return;
+        }
+
+        logger.lifecycle(header);
+        for (Step step : misses) {
+            StringBuilder buf = new StringBuilder();
+            buf.append("  ").append(step.step).append(" (");
+            buf.append(step.finished ? step.timeMs + "ms" : "unfinished");
+            buf.append(", read ").append(CacheCleaner.formatSize(step.bytesRead));
+            buf.append(", wrote ").append(CacheCleaner.formatSize(step.bytesWritten));
+            buf.append(", allocated ").append(step.allocated < 0 ? "unknown" : CacheCleaner.formatSize(step.allocated)).append("): ");
+            if (step.firstRun) {
+                buf.append("no previous record");
+            } else if (step.changed.isEmpty()) {
+                buf.append("output missing");
+            } else {
+                for (int x = 0; x < step.changed.size(); x++) {
+                    Change change = step.changed.get(x);
+                    if (x > 0)
+                        buf.append(", ");
+                    buf.append(change.key).append(change.oldHash == null ? " added" : change.newHash == null ? " removed" : " changed");
+                }
+            }
+            logger.lifecycle(buf.toString());
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or -1 if the JVM doesn't track it.
+     */
+    private static long getAllocatedBytes() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof ThreadMXBean) {
+            ThreadMXBean threads = (ThreadMXBean)bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static class Report {
+        private final List<Step> steps;
+
+        private Report(List<Step> steps) {
+            this.steps = steps;
+        }
+    }
+
+    static class Step {
+        private final String step;
+        private boolean hit;
+        private boolean firstRun;
+        private final List<Change> changed = new ArrayList<>();
+        private boolean finished;
+        private long timeMs;
+        private final long bytesRead;
+        private long bytesWritten;
+        private long allocated = -1;
+
+        private final transient File target;
+        private final transient long start;
+        private final transient long allocatedStart;
+        private final transient Thread thread;
+        private transient List<File> outputs = Collections.emptyList();
+
+        private Step(File target, boolean hit, long bytesRead) {
+            this.step = target.getAbsolutePath();
+            this.hit = hit;
+            this.bytesRead = bytesRead;
+            this.target = target;
+            this.start = System.currentTimeMillis();
+            this.allocatedStart = getAllocatedBytes();
+            this.thread = Thread.currentThread();
+        }
+
+        /**
+         * Called once the regenerated artifact has been saved. Inputs can match and the artifact still be regenerated
+         * because its output went missing, so this turns a hit into a miss.
+         */
+        void finish(List<File> outputs) {
+            if (finished)
+                return;
+            hit = false;
+            finished = true;
+            timeMs = System.currentTimeMillis() - start;
+            if (allocatedStart >= 0 && thread == Thread.currentThread())
+                allocated = getAllocatedBytes() - allocatedStart;
+
+            String name = target.getName();
+            if (!outputs.isEmpty())
+                this.outputs = new ArrayList<>(outputs);
+            else if (name.endsWith(".input"))
+                this.outputs = Collections.singletonList(new File(target.getParentFile(), name.substring(0, name.length() - 6)));
+        }
+
+        private void measureOutputs() {
+            for (File output : outputs)
+                bytesWritten += output.length();
+        }
+    }
+
+    private static class Change {
+        private final String key;
+        private final String oldHash;
+        private final String newHash;
+
+        private Change(String key, String oldHash, String newHash) {
+            this.key = key;
+            this.oldHash = oldHash;
+            this.newHash = newHash;
+        }
+    }
+}
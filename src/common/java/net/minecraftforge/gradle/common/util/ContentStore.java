@@ -0,0 +1,169 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Optional content addressed store shared by every project using this Gradle user home.
+ * <p>
+ * Generated cache artifacts are offered to the store once written. If the store already holds a file with the same
+ * SHA1, the artifact is replaced by a hard link to it, otherwise the store takes a hard link to the artifact. Either way
+ * identical jars only take up disk space once. File systems without hard link support simply skip deduplication.
+ * <p>
+ * As artifacts share their inode with the store, they must never be rewritten in place. Callers must {@link #release(File)}
+ * an artifact before regenerating it.
+ * <p>
+ * The link count of each object doubles as its reference count: objects only referenced by the store are deleted by
+ * {@link #collectGarbage(Logger)}. The store has no size limit of its own, deleting an object that is still linked
+ * would free nothing. Its size follows the artifacts linking to it, which {@link CacheCleaner} evicts, and garbage is
+ * collected after each of its sweeps.
+ * <p>
+ * Enabled with {@code -Dnet.minecraftforge.gradle.content_store=true}.
+ */
+public class ContentStore {
+    private static final boolean ENABLED = Boolean.getBoolean("net.minecraftforge.gradle.content_store");
+    private static final ContentStore DISABLED = new ContentStore(null);
+    private static final Map<File, ContentStore> STORES = new HashMap<>();
+
+    private final File root;
+
+    private ContentStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @return The store for this project's Gradle user home, or a store that does nothing if the store is disabled.
+     */
+    public static ContentStore get(Project project) {
+        return get(Utils.getCache(project, "content_store"));
+    }
+
+    static ContentStore get(File root) {
+        if (!ENABLED)
+            return DISABLED;
+        synchronized (STORES) {
+            return STORES.computeIfAbsent(root, ContentStore::new);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.root != null;
+    }
+
+    private File getObject(String hash) {
+        return new File(root, "objects" + File.separator + hash.substring(0, 2) + File.separator + hash);
+    }
+
+    /**
+     * Deduplicates a freshly generated file against the store.
+     * @return The file, which may now be a hard link to a stored object.
+     */
+    public File intern(File file) throws IOException {
+        if (!isEnabled() || !file.isFile())
+            return file;
+
+        String hash = HashFunction.SHA1.hash(file);
+        File object = getObject(hash);
+
+        synchronized (this) {
+            if (object.exists() && object.length() == file.length() && hash.equals(HashFunction.SHA1.hash(object))) {
+                if (!Files.isSameFile(object.toPath(), file.toPath())) {
+                    Path tmp = link(object, file.getAbsoluteFile().getParentFile(), file.getName());
+                    if (tmp == null)
+                        return file;
+                    Utils.moveAtomically(tmp.toFile(), file);
+                }
+            } else {
+                // Missing, or someone wrote to a stored object in place. Either way this file becomes the stored object.
+                object.getParentFile().mkdirs();
+                Path tmp = link(file, object.getParentFile(), hash);
+                if (tmp == null)
+                    return file;
+                Utils.moveAtomically(tmp.toFile(), object);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Must be called before regenerating a file previously passed to {@link #intern(File)}, so the shared object is not
+     * modified in place.
+     */
+    public void release(File file) throws IOException {
+        if (isEnabled())
+            Files.deleteIfExists(file.toPath());
+    }
+
+    private static Path link(File existing, File dir, String name) throws IOException {
+        Path tmp = dir.toPath().resolve(name + ".link" + System.nanoTime());
+        try {
+            return Files.createLink(tmp, existing.toPath());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // No hard links on this file system, or across file systems. Nothing to deduplicate.
+            Files.deleteIfExists(tmp);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes objects which nothing links to anymore.
+     * @return The number of bytes reclaimed.
+     */
+    public synchronized long collectGarbage(Logger logger) throws IOException {
+        File objects = new File(root, "objects");
+        if (!isEnabled() || !objects.exists())
+            return 0;
+
+        long reclaimed = 0;
+        try (Stream<Path> files = Files.walk(objects.toPath())) {
+            for (Path path : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (getLinkCount(path) == 1) { // Only we reference it, so the space is really ours.
+                    reclaimed += Files.size(path);
+                    Files.delete(path);
+                }
+            }
+        }
+
+        if (reclaimed > 0)
+            logger.info("Content store: reclaimed " + (reclaimed / 1024 / 1024) + "MB of unreferenced objects");
+        return reclaimed;
+    }
+
+    private static int getLinkCount(Path path) {
+        try {
+            return (Integer)Files.getAttribute(path, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return -1; // Unknown, so assume it's referenced.
+        }
+    }
+}
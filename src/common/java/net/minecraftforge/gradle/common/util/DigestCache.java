@@ -0,0 +1,187 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Daemon wide memo of file digests, so that the same file is only ever read once per change no matter how many
+ * repos, functions or {@link HashStore}s ask for its hash.
+ * <p>
+ * Entries are keyed by the file's canonical path and {@link HashFunction}, and are only reused while the file's
+ * {@link FileStamp} is unchanged. The cache holds at most {@code net.minecraftforge.gradle.digest_cache_size} entries
+ * (default 4096), evicting the least recently used.
+ */
+public final class DigestCache {
+    private static final int MAX_ENTRIES = Integer.getInteger("net.minecraftforge.gradle.digest_cache_size", 4096);
+    private static final Map<Key, CachedHash> CACHE = new LinkedHashMap<Key, CachedHash>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedHash> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final Set<Gradle> REPORTED = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private DigestCache() {}
+
+    static String hash(File file, HashFunction function) throws IOException {
+        FileStamp stamp = FileStamp.of(file);
+        if (stamp == null || !stamp.isStable()) {
+            MISSES.incrementAndGet();
+            return function.hashUncached(file);
+        }
+
+        Key key = new Key(file.getCanonicalPath(), function);
+        String ret = get(key, stamp);
+        if (ret != null)
+            return ret;
+
+        ret = function.hashUncached(file);
+        put(key, stamp, ret);
+        return ret;
+    }
+
+    static String[] hashAll(File file, HashFunction... functions) throws IOException {
+        FileStamp stamp = FileStamp.of(file);
+        if (stamp == null || !stamp.isStable()) {
+            MISSES.addAndGet(functions.length);
+            return HashFunction.hashAllUncached(file, functions);
+        }
+
+        String path = file.getCanonicalPath();
+        String[] ret = new String[functions.length];
+        boolean found = true;
+        for (int x = 0; x < functions.length && found; x++) {
+            ret[x] = get(new Key(path, functions[x]), stamp);
+            found = ret[x] != null;
+        }
+        if (found)
+            return ret;
+
+        ret = HashFunction.hashAllUncached(file, functions);
+        for (int x = 0; x < functions.length; x++)
+            put(new Key(path, functions[x]), stamp, ret[x]);
+        return ret;
+    }
+
+    private static String get(Key key, FileStamp stamp) {
+        CachedHash entry;
+        synchronized (CACHE) {
+            entry = CACHE.get(key);
+        }
+        if (entry != null && entry.stamp.equals(stamp)) {
+            HITS.incrementAndGet();
+            return entry.hash;
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+
+    private static void put(Key key, FileStamp stamp, String hash) {
+        synchronized (CACHE) {
+            CACHE.put(key, new CachedHash(stamp, hash));
+        }
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Logs the hit and miss counts at the end of the build, once per build no matter how many projects ask.
+     */
+    public static void reportOnBuildFinished(Gradle gradle, Logger logger) {
+        synchronized (REPORTED) {
+            if (!REPORTED.add(gradle))
+                return;
+        }
+        gradle.buildFinished(result -> {
+            String message = "Digest cache: " + getHits() + " hits, " + getMisses() + " misses, " + size() + " entries";
+            if (BaseRepo.DEBUG)
+                logger.lifecycle(message);
+            else
+                logger.info(message);
+        });
+    }
+
+    private static class Key {
+        private final String path;
+        private final HashFunction function;
+
+        private Key(String path, HashFunction function) {
+            this.path = path;
+            this.function = function;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return this.function == other.function && this.path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, function);
+        }
+    }
+
+    private static class CachedHash {
+        private final FileStamp stamp;
+        private final String hash;
+
+        private CachedHash(FileStamp stamp, String hash) {
+            this.stamp = stamp;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * A cheap fingerprint of a file on disk, made from its size, last modified time and file key (inode on most unix file systems).
+ * <p>
+ * If a file's stamp has not changed since its contents were last hashed, the recorded hash can be reused without reading the file.
+ * Stamps of files which were modified very recently are considered unstable, as a second write within the timestamp
+ * granularity of the file system would not change the stamp.
+ */
+public final class FileStamp {
+    private static final long RACY_WINDOW = 2000; // Some file systems only have 2 second granularity on modified times.
+
+    private final long size;
+    private final long modified;
+    private final String key;
+
+    private FileStamp(long size, long modified, String key) {
+        this.size = size;
+        this.modified = modified;
+        this.key = key == null ? "" : key;
+    }
+
+    /**
+     * Reads the stamp of the specified file.
+     * @return The stamp, or null if the file does not exist.
+     */
+    @Nullable
+    public static FileStamp of(File file) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile())
+                return null;
+            Object key = attrs.fileKey();
+            return new FileStamp(attrs.size(), attrs.lastModifiedTime().toMillis(), key == null ? null : key.toString());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    static FileStamp of(long size, long modified, String key) {
+        return new FileStamp(size, modified, key);
+    }
+
+    /**
+     * Parses a stamp previously created by {@link #toString()}.
+     * @return The stamp, or null if the data is malformed.
+     */
+    @Nullable
+    public static FileStamp parse(String data) {
+        String[] pts = data.split(":", 3);
+        if (pts.length != 3)
+            return null;
+        try {
+            return new FileStamp(Long.parseLong(pts[0]), Long.parseLong(pts[1]), pts[2]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getModified() {
+        return this.modified;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return True if this file was modified long enough ago that a future write is guaranteed to change the stamp.
+     */
+    public boolean isStable() {
+        return this.modified < System.currentTimeMillis() - RACY_WINDOW;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FileStamp)) return false;
+        FileStamp other = (FileStamp)o;
+        return this.size == other.size && this.modified == other.modified && this.key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, modified, key);
+    }
+
+    @Override
+    public String toString() {
+        return size + ":" + modified + ":" + key;
+    }
+}
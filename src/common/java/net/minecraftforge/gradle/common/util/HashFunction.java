@@ -24,14 +24,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 
-import org.apache.commons.io.IOUtils;
-
 /**
  * Different hash functions.
  * <p>
@@ -40,6 +40,9 @@ import org.apache.commons.io.IOUtils;
  * <p>
  * This class offers a cleaner method to retrieve an instance of these hashing functions, without having to wrap in a {@code
  * try}-{@code catch} block.
+ * <p>
+ * Files and streams are digested in fixed size chunks through a per-thread buffer, so hashing a large jar does not
+ * require loading it into memory.
  */
 public enum HashFunction {
     MD5("md5", 32),
@@ -47,6 +50,10 @@ public enum HashFunction {
     SHA256("SHA-256", 64),
     SHA512("SHA-512", 128);
 
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    private static final ThreadLocal<long[]> BYTES_READ = ThreadLocal.withInitial(() -> new long[1]);
+
     private final String algo;
     private final String pad;
 
@@ -67,8 +74,17 @@ public enum HashFunction {
         }
     }
 
+    /**
+     * Hashes the specified file, reusing the result from {@link DigestCache} if the file has not changed since it was last hashed.
+     */
     public String hash(File file) throws IOException {
-        return hash(Files.readAllBytes(file.toPath()));
+        return DigestCache.hash(file, this);
+    }
+
+    String hashUncached(File file) throws IOException {
+        MessageDigest hash = get();
+        update(file, hash);
+        return pad(new BigInteger(1, hash.digest()).toString(16));
     }
 
     public String hash(Iterable<File> files) throws IOException {
@@ -77,7 +93,7 @@ public enum HashFunction {
         for (File file : files) {
             if (!file.exists())
                 continue;
-            hash.update(Files.readAllBytes(file.toPath()));
+            update(file, hash);
         }
         return pad(new BigInteger(1, hash.digest()).toString(16));
     }
@@ -87,7 +103,13 @@ public enum HashFunction {
     }
 
     public String hash(InputStream stream) throws IOException {
-        return hash(IOUtils.toByteArray(stream));
+        MessageDigest hash = get();
+        ByteBuffer buf = BUFFER.get();
+        byte[] data = buf.array();
+        int read;
+        while ((read = stream.read(data)) != -1)
+            hash.update(data, 0, read);
+        return pad(new BigInteger(1, hash.digest()).toString(16));
     }
 
     public String hash(byte[] data) {
@@ -97,4 +119,50 @@ public enum HashFunction {
     public String pad(String hash) {
         return (pad + hash).substring(hash.length());
     }
+
+    /**
+     * Computes several hashes of a single file, reading it only once.
+     * @return The hashes, in the same order as the requested functions.
+     */
+    public static String[] hashAll(File file, HashFunction... functions) throws IOException {
+        return DigestCache.hashAll(file, functions);
+    }
+
+    static String[] hashAllUncached(File file, HashFunction... functions) throws IOException {
+        MessageDigest[] digests = new MessageDigest[functions.length];
+        for (int x = 0; x < functions.length; x++)
+            digests[x] = functions[x].get();
+
+        update(file, digests);
+
+        String[] ret = new String[functions.length];
+        for (int x = 0; x < functions.length; x++)
+            ret[x] = functions[x].pad(new BigInteger(1, digests[x].digest()).toString(16));
+        return ret;
+    }
+
+    /**
+     * The number of bytes of files this thread has read to hash them, leaving out hashes taken from {@link DigestCache}.
+     */
+    static long getBytesRead() {
+        return BYTES_READ.get()[0];
+    }
+
+    private static void update(File file, MessageDigest... digests) throws IOException {
+        ByteBuffer buf = BUFFER.get();
+        long[] total = BYTES_READ.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf.clear();
+            while (channel.read(buf) != -1) {
+                total[0] += buf.position();
+                buf.flip();
+                for (MessageDigest digest : digests) {
+                    buf.mark();
+                    digest.update(buf);
+                    buf.reset();
+                }
+                buf.clear();
+            }
+        }
+    }
 }
@@ -23,22 +23,63 @@ package net.minecraftforge.gradle.common.util;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 
+/**
+ * Records the hashes of a step's inputs, so the step can be skipped if they have not changed.
+ * <p>
+ * Stores are saved in a small binary format, written to a temporary file and renamed into place so that a killed
+ * process can never leave a partial file behind:
+ * <pre>
+ * int    magic ('FGHS')
+ * byte   format version
+ * int    CRC32 of the payload
+ * int    payload length
+ * payload:
+ *   int  hash count,  then for each: UTF key, UTF hash
+ *   int  stamp count, then for each: UTF path, long size, long modified, UTF file key, UTF hash
+ * </pre>
+ * Files are only read the first time the stored hashes are needed. Files in the old {@code key=hash} text format,
+ * along with their {@code .stat} sidecar, are still read and are replaced with the binary format on the next save.
+ */
 public class HashStore {
+    private static final int MAGIC = 0x46474853; // FGHS
+    private static final byte FORMAT_VERSION = 1;
+
     private final boolean INVALIDATE_CACHE = System.getProperty("FG_INVALIDATE_CACHE", "false").equals("true");
+    private final boolean STRICT_HASHING = System.getProperty("FG_STRICT_HASHING", "false").equals("true");
     private final int RAND_CACHE = new Random().nextInt();
 
     private final String root;
     private final Map<String, String> oldHashes = new HashMap<>();
     private final Map<String, String> newHashes = new HashMap<>();
+    private final Map<String, File> pendingFiles = new LinkedHashMap<>();
+    private final Map<String, StampedHash> oldStamps = new HashMap<>();
+    private final Map<String, StampedHash> newStamps = new HashMap<>();
+    private final List<File> outputs = new ArrayList<>();
+    private boolean strict = STRICT_HASHING;
+    private boolean loaded = true;
     private File target;
+    private long bytesRead;
+    private CacheReport.Step report;
 
     public HashStore() {
         this.root = "";
@@ -50,6 +91,15 @@ public class HashStore {
         this.root = root.getAbsolutePath();
     }
 
+    /**
+     * When strict, every file is fully re-hashed instead of trusting the recorded stamp of unchanged files.
+     * Defaults to the value of the {@code FG_STRICT_HASHING} system property.
+     */
+    public HashStore strict(boolean value) {
+        this.strict = value;
+        return this;
+    }
+
     public boolean areSame(File... files) {
         for(File file : files) {
             if(!isSame(file)) return false;
@@ -65,17 +115,18 @@ public class HashStore {
     }
 
     public boolean isSame(File file) {
+        ensureLoaded();
         try {
             String path = getPath(file);
             String hash = oldHashes.get(path);
             if (hash == null) {
                 if (file.exists()) {
-                    newHashes.put(path, HashFunction.SHA1.hash(file));
+                    newHashes.put(path, hash(file));
                     return false;
                 }
                 return true;
             }
-            String fileHash = HashFunction.SHA1.hash(file);
+            String fileHash = hash(file);
             newHashes.put(path, fileHash);
             return fileHash.equals(hash);
         } catch (IOException e) {
@@ -85,13 +136,79 @@ public class HashStore {
 
     public HashStore load(File file) throws IOException {
         this.target = file;
+        this.loaded = false;
+        this.report = null;
         oldHashes.clear();
-        if(!file.exists()) return this;
-        for (String line : FileUtils.readLines(file, StandardCharsets.UTF_8)) {
+        oldStamps.clear();
+        return this;
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!target.exists())
+            return;
+        try {
+            byte[] data = Files.readAllBytes(target.toPath());
+            if (data.length >= 4 && ByteBuffer.wrap(data).getInt() == MAGIC)
+                readBinary(data);
+            else
+                readLegacy(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readBinary(byte[] data) throws IOException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.readInt(); // Magic
+            if (in.readByte() != FORMAT_VERSION)
+                return; // Unknown version, treat as a cache miss.
+            int crc = in.readInt();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+
+            CRC32 check = new CRC32();
+            check.update(payload);
+            if ((int)check.getValue() != crc)
+                return; // Corrupt, treat as a cache miss.
+
+            in = new DataInputStream(new ByteArrayInputStream(payload));
+            Map<String, String> hashes = new HashMap<>();
+            Map<String, StampedHash> stamps = new HashMap<>();
+            for (int x = in.readInt(); x > 0; x--)
+                hashes.put(in.readUTF(), in.readUTF());
+            for (int x = in.readInt(); x > 0; x--) {
+                String path = in.readUTF();
+                FileStamp stamp = FileStamp.of(in.readLong(), in.readLong(), in.readUTF());
+                stamps.put(path, new StampedHash(stamp, in.readUTF()));
+            }
+            oldHashes.putAll(hashes);
+            oldStamps.putAll(stamps);
+        } catch (IOException | RuntimeException e) {
+            // Truncated or otherwise malformed, treat as a cache miss.
+            oldHashes.clear();
+            oldStamps.clear();
+        }
+    }
+
+    private void readLegacy(byte[] data) throws IOException {
+        for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
             String[] split = line.split("=");
-            oldHashes.put(split[0], split[1]);
+            if (split.length == 2)
+                oldHashes.put(split[0], split[1]);
+        }
+        File stamps = getLegacyStampFile(target);
+        if (stamps.exists()) {
+            for (String line : FileUtils.readLines(stamps, StandardCharsets.UTF_8)) {
+                String[] split = line.split("\t");
+                FileStamp stamp = split.length == 3 ? FileStamp.parse(split[1]) : null;
+                if (stamp != null)
+                    oldStamps.put(split[0], new StampedHash(stamp, split[2]));
+            }
         }
-        return this;
     }
 
     public boolean exists() {
@@ -104,21 +221,24 @@ public class HashStore {
     }
 
     public HashStore add(String key, String data) {
+        pendingFiles.remove(key);
         newHashes.put(key, HashFunction.SHA1.hash(data));
         return this;
     }
 
     public HashStore add(String key, byte[] data) {
+        pendingFiles.remove(key);
         newHashes.put(key, HashFunction.SHA1.hash(data));
         return this;
     }
 
     public HashStore add(String key, File file) {
-        try {
-            newHashes.put(key == null ? getPath(file) : key, HashFunction.SHA1.hash(file));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // Files are hashed lazily, so that stamps loaded after this call can still be used.
+        key = key == null ? getPath(file) : key;
+        if (!file.exists()) // Fail here rather than in isSame, so callers see the error where they always have.
+            throw new RuntimeException(new NoSuchFileException(file.getAbsolutePath()));
+        newHashes.remove(key);
+        pendingFiles.put(key, file);
         return this;
     }
 
@@ -139,10 +259,40 @@ public class HashStore {
         return this;
     }
 
+    /**
+     * Declares a file the guarded step writes, so the {@link CacheReport} can tell what regenerating it wrote.
+     * Without one, the report uses the file the hashes are saved for, minus its {@code .input} extension.
+     */
+    public HashStore output(File file) {
+        outputs.add(file);
+        return this;
+    }
+
     public boolean isSame() {
         if (INVALIDATE_CACHE)
             add("invalidate", "" + RAND_CACHE);
-        return oldHashes.equals(newHashes);
+        resolvePending();
+        ensureLoaded();
+        boolean same = oldHashes.equals(newHashes);
+        if (target != null) {
+            if (same)
+                CacheCleaner.recordAccess(target);
+            if (report == null) {
+                report = CacheReport.record(target, same, oldHashes, newHashes, bytesRead);
+                Trace.recordCache(same);
+            }
+        }
+        return same;
+    }
+
+    /**
+     * Returns a hash of everything added, which only depends on the keys and contents, not on where the files are.
+     */
+    public String getDigest() {
+        resolvePending();
+        StringBuilder buf = new StringBuilder();
+        new TreeMap<>(newHashes).forEach((key, hash) -> buf.append(key).append('=').append(hash).append('\n'));
+        return HashFunction.SHA1.hash(buf.toString());
     }
 
     public void save() throws IOException {
@@ -152,7 +302,81 @@ public class HashStore {
         save(target);
     }
     public void save(File file) throws IOException {
-        FileUtils.writeByteArrayToFile(file, newHashes.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).collect(Collectors.joining("\n")).getBytes());
+        resolvePending();
+        if (report != null)
+            report.finish(outputs);
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(newHashes.size());
+        for (Map.Entry<String, String> entry : newHashes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.writeInt(newStamps.size());
+        for (Map.Entry<String, StampedHash> entry : newStamps.entrySet()) {
+            FileStamp stamp = entry.getValue().stamp;
+            out.writeUTF(entry.getKey());
+            out.writeLong(stamp.getSize());
+            out.writeLong(stamp.getModified());
+            out.writeUTF(stamp.getKey());
+            out.writeUTF(entry.getValue().hash);
+        }
+        out.flush();
+
+        byte[] data = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length + 13);
+        out = new DataOutputStream(buf);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt((int)crc.getValue());
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+
+        Utils.writeAtomically(file, buf.toByteArray());
+        Files.deleteIfExists(getLegacyStampFile(file).toPath());
+    }
+
+    private void resolvePending() {
+        try {
+            for (Map.Entry<String, File> entry : pendingFiles.entrySet())
+                newHashes.put(entry.getKey(), hash(entry.getValue()));
+            pendingFiles.clear();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Hashes the specified file, reusing the recorded hash if the file's stamp has not changed since it was last saved.
+     */
+    private String hash(File file) throws IOException {
+        ensureLoaded();
+        String path = getPath(file);
+        FileStamp stamp = FileStamp.of(file);
+        if (stamp == null) // Missing files are left to fail the same way they always have.
+            return HashFunction.SHA1.hash(file);
+
+        StampedHash old = strict ? null : newStamps.getOrDefault(path, oldStamps.get(path));
+        if (old != null && old.stamp.equals(stamp)) {
+            newStamps.put(path, old);
+            return old.hash;
+        }
+
+        long read = HashFunction.getBytesRead();
+        String hash = HashFunction.SHA1.hash(file);
+        bytesRead += HashFunction.getBytesRead() - read;
+        if (stamp.isStable())
+            newStamps.put(path, new StampedHash(stamp, hash));
+        return hash;
+    }
+
+    private static File getLegacyStampFile(File file) {
+        return new File(file.getAbsolutePath() + ".stat");
     }
 
     private String getPath(File file) {
@@ -164,4 +388,13 @@ public class HashStore {
         }
     }
 
+    private static class StampedHash {
+        private final FileStamp stamp;
+        private final String hash;
+
+        private StampedHash(FileStamp stamp, String hash) {
+            this.stamp = stamp;
+            this.hash = hash;
+        }
+    }
 }
@@ -0,0 +1,329 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the main class of a tool jar inside this JVM, instead of forking a new one for every invocation.
+ * <p>
+ * Only tools listed by main class in {@code -Dnet.minecraftforge.gradle.tools.in_process=<class>,<class>} run here,
+ * everything else runs in a {@link ToolWorkerPool} worker or a fork. Nothing can stop a tool from ending the daemon
+ * with {@link System#exit} or from leaving threads behind, so only list tools known to return from {@code main}.
+ * They also run in the daemon's working directory, so only list tools that are given absolute paths.
+ * <p>
+ * Tools are loaded in a child first class loader that only sees the JDK and the tool's own classpath. Loaders are
+ * kept for later runs of the same jars, so they are only loaded and JIT compiled once per daemon, but never shared by
+ * two runs at once, as tools keep state in static fields. At most {@code net.minecraftforge.gradle.tools.in_process_loaders}
+ * idle loaders are kept, 4 by default, and those unused for {@code net.minecraftforge.gradle.tools.worker_timeout}
+ * seconds are closed, as with workers. What the tool prints to {@link System#out} or
+ * {@link System#err} from the thread it was started on goes to its log, output from threads it starts goes to the
+ * daemon's own streams.
+ */
+public final class InProcessRunner {
+    private static final Set<String> ALLOWED = getAllowed();
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<>();
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(Long.getLong("net.minecraftforge.gradle.tools.worker_timeout", 300));
+    private static final int MAX_IDLE = Math.max(0, Integer.getInteger("net.minecraftforge.gradle.tools.in_process_loaders", 4));
+    private static final Map<String, Deque<ToolClassLoader>> LOADERS = new HashMap<>();
+    private static int idle;
+    private static ScheduledExecutorService reaper;
+    private static PrintStream originalOut;
+    private static PrintStream originalErr;
+    private static int running;
+
+    private InProcessRunner() {}
+
+    /**
+     * Whether the tool with the given main class may be run in this JVM.
+     */
+    public static boolean isAllowed(String mainClass) {
+        return ALLOWED.contains(mainClass);
+    }
+
+    /**
+     * Runs the main class from the classpath with the given arguments, sending its output to the log.
+     *
+     * @return The exit code the tool would have exited a forked JVM with.
+     */
+    public static int run(List<File> classpath, String mainClass, List<String> args, OutputStream log) throws IOException {
+        if (!isAllowed(mainClass))
+            throw new IllegalStateException(mainClass + " is not allowed to run in process");
+
+        String key = getKey(classpath);
+        ToolClassLoader loader = acquireLoader(key, classpath);
+        PrintStream out = new PrintStream(new NonClosingOutputStream(log), true);
+        Context previous = CONTEXT.get();
+        Thread thread = Thread.currentThread();
+        ClassLoader previousLoader = thread.getContextClassLoader();
+        startRouting();
+        CONTEXT.set(new Context(out));
+        thread.setContextClassLoader(loader);
+        try {
+            Method main = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+            if (!Modifier.isStatic(main.getModifiers()))
+                throw new IllegalStateException("Main method of " + mainClass + " is not static");
+            main.invoke(null, (Object)args.toArray(new String[0]));
+            return 0;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            // Same as an uncaught exception in a forked JVM
+            out.print("Exception in thread \"main\" ");
+            cause.printStackTrace(out);
+            return 1;
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Could not start " + mainClass, e);
+        } finally {
+            out.flush();
+            thread.setContextClassLoader(previousLoader);
+            CONTEXT.set(previous);
+            stopRouting();
+            releaseLoader(key, loader);
+        }
+    }
+
+    private static String getKey(List<File> classpath) throws IOException {
+        StringBuilder key = new StringBuilder();
+        for (File file : classpath)
+            key.append(HashFunction.SHA1.hash(file)).append(';');
+        return key.toString();
+    }
+
+    private static ToolClassLoader acquireLoader(String key, List<File> classpath) throws IOException {
+        synchronized (LOADERS) {
+            Deque<ToolClassLoader> loaders = LOADERS.get(key);
+            if (loaders != null && !loaders.isEmpty()) {
+                idle--;
+                return loaders.pollFirst();
+            }
+        }
+        URL[] urls = new URL[classpath.size()];
+        for (int x = 0; x < urls.length; x++)
+            urls[x] = classpath.get(x).toURI().toURL();
+        return new ToolClassLoader(urls);
+    }
+
+    private static void releaseLoader(String key, ToolClassLoader loader) {
+        synchronized (LOADERS) {
+            loader.lastUsed = System.nanoTime();
+            LOADERS.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(loader);
+            idle++;
+            // Over the limit, drop the least recently used
+            while (idle > MAX_IDLE) {
+                Deque<ToolClassLoader> oldest = null;
+                for (Deque<ToolClassLoader> loaders : LOADERS.values()) {
+                    if (!loaders.isEmpty() && (oldest == null || loaders.peekLast().lastUsed < oldest.peekLast().lastUsed))
+                        oldest = loaders;
+                }
+                close(oldest.pollLast());
+                idle--;
+            }
+            LOADERS.values().removeIf(Deque::isEmpty);
+
+            if (reaper == null) {
+                reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "ForgeGradle in process tool reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                reaper.scheduleWithFixedDelay(InProcessRunner::closeIdle, 10, 10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static void closeIdle() {
+        long now = System.nanoTime();
+        synchronized (LOADERS) {
+            for (Deque<ToolClassLoader> loaders : LOADERS.values()) {
+                for (Iterator<ToolClassLoader> itr = loaders.iterator(); itr.hasNext();) {
+                    ToolClassLoader loader = itr.next();
+                    if (now - loader.lastUsed > TIMEOUT) {
+                        close(loader);
+                        itr.remove();
+                        idle--;
+                    }
+                }
+            }
+            LOADERS.values().removeIf(Deque::isEmpty);
+        }
+    }
+
+    private static void close(ToolClassLoader loader) {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            // Only leaks the open jars
+        }
+    }
+
+    /**
+     * Routes the standard streams through us while any tool runs, and puts back what was there when the last one ends.
+     */
+    private static synchronized void startRouting() {
+        if (running++ == 0) {
+            originalOut = System.out;
+            originalErr = System.err;
+            System.setOut(new RoutingPrintStream(originalOut));
+            System.setErr(new RoutingPrintStream(originalErr));
+        }
+    }
+
+    private static synchronized void stopRouting() {
+        if (--running == 0) {
+            // Unless something else replaced them meanwhile
+            if (System.out instanceof RoutingPrintStream)
+                System.setOut(originalOut);
+            if (System.err instanceof RoutingPrintStream)
+                System.setErr(originalErr);
+            originalOut = originalErr = null;
+        }
+    }
+
+    private static Set<String> getAllowed() {
+        String value = System.getProperty("net.minecraftforge.gradle.tools.in_process", "");
+        Set<String> ret = new HashSet<>();
+        Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).forEach(ret::add);
+        return Collections.unmodifiableSet(ret);
+    }
+
+    private static class Context {
+        private final PrintStream out;
+
+        private Context(PrintStream out) {
+            this.out = out;
+        }
+    }
+
+    private static class RoutingPrintStream extends PrintStream {
+        private RoutingPrintStream(PrintStream parent) {
+            super(new OutputStream() {
+                private OutputStream target() {
+                    Context ctx = CONTEXT.get();
+                    return ctx == null ? parent : ctx.out;
+                }
+
+                @Override
+                public void write(int b) {
+                    try {
+                        target().write(b);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    target().write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    target().flush();
+                }
+            }, true);
+        }
+    }
+
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream parent;
+
+        private NonClosingOutputStream(OutputStream parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            parent.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            parent.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            parent.flush();
+        }
+    }
+
+    /**
+     * Child first, so the tool always gets its own copy of libraries it shares with the JDK's extension classes.
+     * The parent is the JDK's own loader, so nothing from Gradle or ForgeGradle leaks in.
+     */
+    private static class ToolClassLoader extends URLClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private long lastUsed;
+
+        private ToolClassLoader(URL[] urls) {
+            super(urls, ClassLoader.getSystemClassLoader().getParent());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java."))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> ret = findLoadedClass(name);
+                if (ret == null) {
+                    try {
+                        ret = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        ret = super.loadClass(name, false);
+                    }
+                }
+                if (resolve)
+                    resolveClass(ret);
+                return ret;
+            }
+        }
+
+        @Override
+        public URL getResource(String name) {
+            URL ret = findResource(name);
+            return ret != null ? ret : super.getResource(name);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import net.minecraftforge.gradle.common.mapping.detail.IMappingDetail;
+import net.minecraftforge.gradle.common.mapping.detail.MappingDetails;
+import net.minecraftforge.gradle.common.util.func.IOSupplier;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Daemon wide cache of parsed mappings, keyed by the SHA1 of the mappings zip. Values are softly referenced, so they are
+ * dropped under memory pressure, and concurrent requests for the same mappings wait for a single load.
+ * <p>
+ * The returned objects are shared and must not be modified.
+ */
+public final class MappingCache {
+    private static final ConcurrentMap<Key, Slot> CACHE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    private MappingCache() {}
+
+    public static McpNames getNames(File data) throws IOException {
+        return get(McpNames.class, data, () -> McpNames.load(data));
+    }
+
+    public static IMappingDetail getDetails(File data) throws IOException {
+        return get(IMappingDetail.class, data, () -> MappingDetails.fromZip(data));
+    }
+
+    private static <T> T get(Class<T> type, File data, IOSupplier<T> loader) throws IOException {
+        purge();
+        Key key = new Key(type, HashFunction.SHA1.hash(data));
+        Slot slot = CACHE.computeIfAbsent(key, k -> new Slot());
+        synchronized (slot) {
+            Object ret = slot.ref == null ? null : slot.ref.get();
+            if (ret == null) {
+                ret = loader.get();
+                slot.ref = new KeyedReference(key, ret);
+            }
+            return type.cast(ret);
+        }
+    }
+
+    /** Forgets slots whose values the GC has collected. */
+    private static void purge() {
+        Reference<?> polled;
+        while ((polled = QUEUE.poll()) != null) {
+            Reference<?> ref = polled;
+            Key key = ((KeyedReference)ref).key;
+            CACHE.computeIfPresent(key, (k, slot) -> slot.ref == ref ? null : slot);
+        }
+    }
+
+    private static class Slot {
+        private volatile KeyedReference ref; // Read by purge() without the lock
+    }
+
+    private static class KeyedReference extends SoftReference<Object> {
+        private final Key key;
+
+        private KeyedReference(Key key, Object value) {
+            super(value, QUEUE);
+            this.key = key;
+        }
+    }
+
+    private static class Key {
+        private final Class<?> type;
+        private final String hash;
+
+        private Key(Class<?> type, String hash) {
+            this.type = type;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return this.type == other.type && this.hash.equals(other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, hash);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.common.util;
+
+import de.siegmar.fastcsv.reader.NamedCsvReader;
+import org.gradle.api.Project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Binary copy of the CSV files in a mappings zip, kept in ForgeGradle's cache as {@code mapping_index/<sha1>.idx} and
+ * rebuilt if missing or failing its checksum. Strings are stored once in a shared table and decoded on demand from a
+ * memory mapped buffer, and each CSV's rows are sorted by their SRG name so {@link Section#find(String)} can binary
+ * search them. Loading mappings therefore neither parses CSV nor builds any map.
+ * <p>
+ * Where a CSV has several rows for a name, only the last is kept, as it would have replaced the others.
+ */
+public class MappingIndex {
+    private static final int MAGIC = 0x46474D49; // FGMI
+    private static final byte FORMAT_VERSION = 2;
+    private static final int NONE = -1;
+
+    private static volatile File cacheDir;
+
+    private final String hash;
+    private final ByteBuffer strings;
+    private final IntBuffer offsets;
+    private final String[] decoded;
+    private final List<Section> sections = new ArrayList<>();
+
+    /**
+     * Keeps indexes in the cache under the project's Gradle user home, which is the same for every build in a daemon.
+     * Until this is called they are built in memory each time.
+     */
+    public static void register(Project project) {
+        cacheDir = Utils.getCache(project, "mapping_index");
+    }
+
+    /**
+     * Loads the index for the given mappings zip, creating or refreshing it if needed.
+     */
+    public static MappingIndex load(File zip) throws IOException {
+        String hash = HashFunction.SHA1.hash(zip);
+        File dir = cacheDir;
+        if (dir == null)
+            return new MappingIndex(ByteBuffer.wrap(build(zip, hash)));
+
+        File file = new File(dir, hash.substring(0, 2) + '/' + hash + ".idx");
+        if (file.exists()) {
+            try {
+                MappingIndex ret = read(file);
+                if (ret != null && ret.hash.equals(hash))
+                    return ret;
+            } catch (IOException | RuntimeException e) {
+                // Corrupt or truncated, rebuild it.
+            }
+        }
+
+        byte[] data = build(zip, hash);
+        try {
+            Utils.writeAtomically(file, data);
+        } catch (IOException e) {
+            // Read only cache, or the old index is still mapped on Windows. Just use it from memory this time.
+        }
+        return new MappingIndex(ByteBuffer.wrap(data));
+    }
+
+    private static MappingIndex read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 9 || buf.getInt(0) != MAGIC || buf.get(4) != FORMAT_VERSION)
+                return null;
+
+            CRC32 crc = new CRC32();
+            ByteBuffer payload = buf.duplicate();
+            payload.position(9);
+            crc.update(payload);
+            if ((int)crc.getValue() != buf.getInt(5))
+                return null;
+            return new MappingIndex(buf);
+        }
+    }
+
+    private MappingIndex(ByteBuffer buf) {
+        buf.position(9);
+        byte[] hashBytes = new byte[buf.get() & 0xFF];
+        buf.get(hashBytes);
+        this.hash = new String(hashBytes, StandardCharsets.US_ASCII);
+
+        int count = buf.getInt();
+        this.offsets = slice(buf, (count + 1) * 4).asIntBuffer();
+        this.strings = slice(buf, offsets.get(count));
+        this.decoded = new String[count];
+
+        int sectionCount = buf.getInt();
+        for (int x = 0; x < sectionCount; x++) {
+            String name = getString(buf.getInt());
+            String obf = getString(buf.getInt());
+            byte flags = buf.get();
+            int rows = buf.getInt();
+            sections.add(new Section(name, obf, flags, slice(buf, rows * 4 * 4).asIntBuffer()));
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int length) {
+        ByteBuffer ret = buf.slice();
+        ret.limit(length);
+        buf.position(buf.position() + length);
+        return ret;
+    }
+
+    /**
+     * @return The SHA1 of the zip this index was built from.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return Every CSV in the zip, in the order they are stored.
+     */
+    public List<Section> getSections() {
+        return Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * @return The first CSV with the given entry name, or null.
+     */
+    public Section getSection(String name) {
+        for (Section section : sections) {
+            if (section.name.equals(name))
+                return section;
+        }
+        return null;
+    }
+
+    private String getString(int id) {
+        if (id == NONE)
+            return null;
+        // Racy on purpose: strings are immutable, so at worst two threads decode the same one and either copy is kept.
+        String ret = decoded[id];
+        if (ret == null) {
+            int start = offsets.get(id);
+            byte[] data = new byte[offsets.get(id + 1) - start];
+            ByteBuffer dup = strings.duplicate();
+            dup.position(start);
+            dup.get(data);
+            ret = new String(data, StandardCharsets.UTF_8);
+            decoded[id] = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Compares a stored string with an ASCII name by their UTF-8 bytes, without decoding it.
+     */
+    private int compare(int id, CharSequence chars, int start, int end, boolean lowerFirst) {
+        int pos = offsets.get(id);
+        int stop = offsets.get(id + 1);
+        for (int i = start; i < end; i++, pos++) {
+            if (pos == stop)
+                return -1;
+            int c = i == start && lowerFirst ? Character.toLowerCase(chars.charAt(i)) : chars.charAt(i);
+            int b = strings.get(pos) & 0xFF;
+            if (b != c)
+                return b - c;
+        }
+        return pos == stop ? 0 : 1;
+    }
+
+    private int compare(int id, byte[] name) {
+        int pos = offsets.get(id);
+        int stop = offsets.get(id + 1);
+        for (byte c : name) {
+            if (pos == stop)
+                return -1;
+            int b = strings.get(pos++) & 0xFF;
+            if (b != (c & 0xFF))
+                return b - (c & 0xFF);
+        }
+        return pos == stop ? 0 : 1;
+    }
+
+    public class Section {
+        private static final byte HAS_NAME = 1;
+        private static final byte HAS_SIDE = 2;
+        private static final byte HAS_DESC = 4;
+
+        private final String name;
+        private final String obfColumn;
+        private final byte flags;
+        private final IntBuffer rows;
+
+        private Section(String name, String obfColumn, byte flags, IntBuffer rows) {
+            this.name = name;
+            this.obfColumn = obfColumn;
+            this.flags = flags;
+            this.rows = rows;
+        }
+
+        /** @return The zip entry name */
+        public String getName() {
+            return name;
+        }
+
+        /** @return The column the SRG names were read from, {@code searge} or {@code param} */
+        public String getObfColumn() {
+            return obfColumn;
+        }
+
+        public boolean hasName() {
+            return (flags & HAS_NAME) != 0;
+        }
+
+        public boolean hasSide() {
+            return (flags & HAS_SIDE) != 0;
+        }
+
+        public boolean hasDesc() {
+            return (flags & HAS_DESC) != 0;
+        }
+
+        public int size() {
+            return rows.limit() / 4;
+        }
+
+        /**
+         * @return The row for the given SRG name, or -1.
+         */
+        public int find(String name) {
+            return find(name, 0, name.length(), false);
+        }
+
+        /**
+         * @param lowerFirst Treat the first character as lower case, for the capitalised Func_/Field_ forms.
+         * @return The row for the SRG name in {@code chars[start, end)}, or -1.
+         */
+        public int find(CharSequence chars, int start, int end, boolean lowerFirst) {
+            for (int i = start; i < end; i++) {
+                if (chars.charAt(i) >= 0x80) {
+                    String name = chars.subSequence(start, end).toString();
+                    if (lowerFirst)
+                        name = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+                    return find(name.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            int low = 0;
+            int high = size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(rows.get(mid * 4), chars, start, end, lowerFirst);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        private int find(byte[] name) {
+            int low = 0;
+            int high = size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(rows.get(mid * 4), name);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        public String getObf(int row) {
+            return getString(rows.get(row * 4));
+        }
+
+        /**
+         * @return The row's SRG name as its raw bytes, which are only the right characters if it is ASCII.
+         */
+        CharSequence getObfBytes(int row) {
+            int id = rows.get(row * 4);
+            return new RawChars(offsets.get(id), offsets.get(id + 1));
+        }
+
+        /** @return The mapped name, or null if this CSV has no name column */
+        public String getMapped(int row) {
+            return getString(rows.get(row * 4 + 1));
+        }
+
+        /** @return The side, or null if this CSV has no side column */
+        public String getSide(int row) {
+            return getString(rows.get(row * 4 + 2));
+        }
+
+        /** @return The description, or null if this CSV has no desc column */
+        public String getDesc(int row) {
+            return getString(rows.get(row * 4 + 3));
+        }
+    }
+
+    private class RawChars implements CharSequence {
+        private final int start;
+        private final int end;
+
+        private RawChars(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char)(strings.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new RawChars(this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] data = new byte[end - start];
+            ByteBuffer dup = strings.duplicate();
+            dup.position(start);
+            dup.get(data);
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] build(File zip, String hash) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteArrayOutputStream sectionData = new ByteArrayOutputStream();
+        DataOutputStream sections = new DataOutputStream(sectionData);
+        int sectionCount = 0;
+
+        try (ZipFile zf = new ZipFile(zip)) {
+            for (ZipEntry entry : Collections.list(zf.entries())) {
+                if (!entry.getName().endsWith(".csv"))
+                    continue;
+
+                // Later rows replace earlier ones, so only the last row for each name is kept.
+                Map<String, String[]> rows = new HashMap<>();
+                String obf;
+                byte flags = 0;
+                try (NamedCsvReader reader = NamedCsvReader.builder().build(new InputStreamReader(zf.getInputStream(entry)))) {
+                    Set<String> headers = reader.getHeader();
+                    obf = headers.contains("searge") ? "searge" : "param";
+                    boolean hasName = headers.contains("name");
+                    boolean hasSide = headers.contains("side");
+                    boolean hasDesc = headers.contains("desc");
+                    flags |= hasName ? Section.HAS_NAME : 0;
+                    flags |= hasSide ? Section.HAS_SIDE : 0;
+                    flags |= hasDesc ? Section.HAS_DESC : 0;
+
+                    reader.forEach(row -> rows.put(row.getField(obf), new String[] {
+                        row.getField(obf),
+                        hasName ? row.getField("name") : null,
+                        hasSide ? row.getField("side") : null,
+                        hasDesc ? row.getField("desc") : null
+                    }));
+                }
+
+                List<String[]> sorted = new ArrayList<>(rows.values());
+                sorted.sort(Comparator.comparing(row -> row[0].getBytes(StandardCharsets.UTF_8), MappingIndex::compareBytes));
+
+                sections.writeInt(intern(ids, strings, entry.getName()));
+                sections.writeInt(intern(ids, strings, obf));
+                sections.writeByte(flags);
+                sections.writeInt(sorted.size());
+                for (String[] row : sorted) {
+                    for (String value : row)
+                        sections.writeInt(value == null ? NONE : intern(ids, strings, value));
+                }
+                sectionCount++;
+            }
+        }
+        sections.flush();
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        byte[] hashBytes = hash.getBytes(StandardCharsets.US_ASCII);
+        out.writeByte(hashBytes.length);
+        out.write(hashBytes);
+
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        out.writeInt(strings.size());
+        int offset = 0;
+        for (String value : strings) {
+            byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            encoded.add(data);
+            out.writeInt(offset);
+            offset += data.length;
+        }
+        out.writeInt(offset);
+        for (byte[] data : encoded)
+            out.write(data);
+
+        out.writeInt(sectionCount);
+        sectionData.writeTo(out);
+        out.flush();
+
+        byte[] payload = buf.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer ret = ByteBuffer.allocate(9 + payload.length);
+        ret.putInt(MAGIC).put(FORMAT_VERSION).putInt((int)crc.getValue()).put(payload);
+        return ret.array();
+    }
+
+    /** Unsigned, so the order matches what {@link #compare(int, byte[])} sees. */
+    private static int compareBytes(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int x = 0; x < len; x++) {
+            int cmp = (a[x] & 0xFF) - (b[x] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    private static int intern(Map<String, Integer> ids, List<String> strings, String value) {
+        return ids.computeIfAbsent(value, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+}
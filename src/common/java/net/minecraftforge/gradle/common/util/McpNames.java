@@ -20,77 +20,71 @@
 
 package net.minecraftforge.gradle.common.util;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
-import de.siegmar.fastcsv.reader.NamedCsvReader;
-
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 public class McpNames {
     private static final String NEWLINE = System.getProperty("line.separator");
-    private static final Pattern SRG_FINDER             = Pattern.compile("[fF]unc_[0-9]+_[a-zA-Z_]+|[fF]ield_[0-9]+_[a-zA-Z_]+|p_[\\w]+_\\d+_\\b");
-    private static final Pattern METHOD_JAVADOC_PATTERN = Pattern.compile("^(?<indent>(?: {3})+|\\t+)(?!return)(?:\\w+\\s+)*(?<generic><[\\w\\W]*>\\s+)?(?<return>\\w+[\\w$.]*(?:<[\\w\\W]*>)?[\\[\\]]*)\\s+(?<name>func_[0-9]+_[a-zA-Z_]+)\\(");
-    private static final Pattern FIELD_JAVADOC_PATTERN  = Pattern.compile("^(?<indent>(?: {3})+|\\t+)(?!return)(?:\\w+\\s+)*(?:\\w+[\\w$.]*(?:<[\\w\\W]*>)?[\\[\\]]*)\\s+(?<name>field_[0-9]+_[a-zA-Z_]+) *(?:=|;)");
-    private static final Pattern CLASS_JAVADOC_PATTERN  = Pattern.compile("^(?<indent>(?: )*|\\t*)([\\w|@]*\\s)*(class|interface|@interface|enum) (?<name>[\\w]+)");
-    private static final Pattern CLOSING_CURLY_BRACE    = Pattern.compile("^(?<indent>(?: )*|\\t*)}");
     private static final Pattern PACKAGE_DECL           = Pattern.compile("^[\\s]*package(\\s)*(?<name>[\\w|.]+);$");
     private static final Pattern LAMBDA_DECL            = Pattern.compile("\\((?<args>(?:(?:, ){0,1}(?:p_[\\w]+_\\d+_\\b))+)\\) ->");
 
     public static McpNames load(File data) throws IOException {
-        Map<String, String> names = new HashMap<>();
-        Map<String, String> docs = new HashMap<>();
-        try (ZipFile zip = new ZipFile(data)) {
-            List<ZipEntry> entries = zip.stream().filter(e -> e.getName().endsWith(".csv")).collect(Collectors.toList());
-            for (ZipEntry entry : entries) {
-                try (NamedCsvReader reader = NamedCsvReader.builder().build(new InputStreamReader(zip.getInputStream(entry)))) {
-                    String obf = reader.getHeader().contains("searge") ? "searge" : "param";
-                    boolean hasDesc = reader.getHeader().contains("desc");
-                    reader.forEach(row -> {
-                        String searge = row.getField(obf);
-                        names.put(searge, row.getField("name"));
-                        if (hasDesc) {
-                            String desc = row.getField("desc");
-                            if (!desc.isEmpty())
-                                docs.put(searge, desc);
-                        }
-                    });
-                }
-            }
-        }
-
-        return new McpNames(HashFunction.SHA1.hash(data), names, docs);
+        return new McpNames(MappingIndex.load(data));
     }
 
-    private Map<String, String> names;
-    private Map<String, String> docs;
+    private final List<MappingIndex.Section> sections;
+    private final SrgNameTable names;
+    private final Map<String, String> javadocCache = new ConcurrentHashMap<>();
     public final String hash;
 
-    private McpNames(String hash, Map<String, String> names, Map<String, String> docs) {
-        this.hash = hash;
-        this.names = names;
-        this.docs = docs;
+    private McpNames(MappingIndex index) {
+        this.hash = index.getHash();
+        this.sections = index.getSections();
+        this.names = new SrgNameTable(sections);
+    }
+
+    /**
+     * Looks the name in {@code chars[start, end)} up in the index. A name in several CSVs takes its mapping from the last.
+     */
+    private String getName(CharSequence chars, int start, int end, boolean lowerFirst) {
+        return names.getMapped(chars, start, end, lowerFirst);
+    }
+
+    /** Returns the last non empty description for the name, or null. */
+    private String getDoc(String name) {
+        for (int x = sections.size() - 1; x >= 0; x--) {
+            MappingIndex.Section section = sections.get(x);
+            if (!section.hasDesc())
+                continue;
+            int row = section.find(name);
+            if (row != -1 && !section.getDesc(row).isEmpty())
+                return section.getDesc(row);
+        }
+        return null;
     }
 
     public String rename(InputStream stream, boolean javadocs) throws IOException {
@@ -103,100 +97,122 @@ public class McpNames {
 
     public String rename(InputStream stream, boolean javadocs, boolean lambdas, Charset sourceFileCharset)
             throws IOException {
+        StringWriter writer = new StringWriter();
+        rename(new InputStreamReader(stream, sourceFileCharset), writer, javadocs, lambdas);
+        return writer.toString();
+    }
 
-        String data = IOUtils.toString(stream, sourceFileCharset);
-        List<String> input = IOUtils.readLines(new StringReader(data));
-
-        //Reader doesn't give us the empty line if the file ends with a newline.. so add one.
-        if (data.charAt(data.length() - 1) == '\r' || data.charAt(data.length() - 1) == '\n')
-            input.add("");
-
-        List<String> lines = new ArrayList<>();
-        Deque<Pair<String, Integer>> innerClasses = new LinkedList<>(); //pair of inner class name & indentation
-        String _package = ""; //default package
+    /**
+     * Renames a source file line by line, without holding the whole file in memory. Lines are rejoined with the
+     * platform line separator. If lambda parameters are excluded the file has to be read once up front, as a lambda
+     * can use a parameter name before it is declared.
+     */
+    public void rename(Reader reader, Writer writer, boolean javadocs, boolean lambdas) throws IOException {
+        LineReader input = new LineReader(reader);
         Set<String> blacklist = null;
 
         if (!lambdas) {
+            List<String> lines = new ArrayList<>();
             blacklist = new HashSet<>();
-            for (String line : input) {
+            for (String line = input.readLine(); line != null; line = input.readLine()) {
+                lines.add(line);
                 Matcher m = LAMBDA_DECL.matcher(line);
-                if (!m.find())
-                    continue;
-                blacklist.addAll(Arrays.asList(m.group("args").split(", ")));
+                if (m.find())
+                    blacklist.addAll(Arrays.asList(m.group("args").split(", ")));
             }
+            input = new LineReader(lines.iterator());
         }
 
-        for (String line : input) {
-            Matcher m = PACKAGE_DECL.matcher(line);
-            if(m.find())
-                _package = m.group("name") + ".";
+        LineWriter output = new LineWriter(writer);
+        Deque<Pair<String, Integer>> innerClasses = new LinkedList<>(); //pair of inner class name & indentation
+        String _package = ""; //default package
+
+        for (String line = input.readLine(); line != null; line = input.readLine()) {
+            if (line.indexOf("package") != -1) {
+                Matcher m = PACKAGE_DECL.matcher(line);
+                if(m.find())
+                    _package = m.group("name") + ".";
+            }
 
             if (javadocs) {
-                if (!injectJavadoc(lines, line, _package, innerClasses))
+                if (!injectJavadoc(output, line, _package, innerClasses))
                     javadocs = false;
             }
-            lines.add(replaceInLine(line, blacklist));
+            output.add(replaceInLine(line, blacklist));
         }
-        return String.join(NEWLINE, lines);
+        output.flush();
     }
 
     public String rename(String entry) {
-        return names.getOrDefault(entry, entry);
+        String ret = getName(entry, 0, entry.length(), false);
+        return ret == null ? entry : ret;
     }
 
     /**
      * Injects a javadoc into the given list of lines, if the given line is a
      * method or field declaration.
-     * @param lines The current file content (to be modified by this method)
+     * Declarations are recognised by hand, accepting exactly what the method, field, class and closing brace patterns
+     * this used to run in turn would, and picking the same name when several would fit.
+     * @param lines The output so far (to be modified by this method)
      * @param line The line that was just read (will not be in the list)
      * @param _package the name of the package this file is declared to be in, in com.example format;
      * @param innerClasses current position in inner class
      */
-    private boolean injectJavadoc(List<String> lines, String line, String _package, Deque<Pair<String, Integer>> innerClasses) {
-        // methods
-        Matcher matcher = METHOD_JAVADOC_PATTERN.matcher(line);
-        if (matcher.find()) {
-            String javadoc = docs.get(matcher.group("name"));
-            if (javadoc != null)
-                insertAboveAnnotations(lines, JavadocAdder.buildJavadoc(matcher.group("indent"), javadoc, true));
-
-            // worked, so return and don't try the fields.
+    private boolean injectJavadoc(LineWriter lines, String line, String _package, Deque<Pair<String, Integer>> innerClasses) throws IOException {
+        int indent = getIndent(line);
+        if (indent == line.length())
             return true;
+
+        // Members must be indented by tabs or a multiple of three spaces, and can't be a return statement
+        boolean member = indent > 0 && (line.charAt(0) == '\t' || indent % 3 == 0) && !line.startsWith("return", indent);
+
+        // methods
+        if (member && line.indexOf("func_", indent) != -1) {
+            int name = matchDeclaration(line, indent, true);
+            if (name != -1) {
+                String javadoc = getJavadoc(line.substring(0, indent), line.substring(name, getSrgEnd(line, name, "func_")), true);
+                if (javadoc != null)
+                    lines.insertAboveAnnotations(javadoc);
+
+                // worked, so return and don't try the fields.
+                return true;
+            }
         }
 
         // fields
-        matcher = FIELD_JAVADOC_PATTERN.matcher(line);
-        if (matcher.find()) {
-            String javadoc = docs.get(matcher.group("name"));
-            if (javadoc != null)
-                insertAboveAnnotations(lines, JavadocAdder.buildJavadoc(matcher.group("indent"), javadoc, false));
-
-            return true;
+        if (member && line.indexOf("field_", indent) != -1) {
+            int name = matchDeclaration(line, indent, false);
+            if (name != -1) {
+                String javadoc = getJavadoc(line.substring(0, indent), line.substring(name, getSrgEnd(line, name, "field_")), false);
+                if (javadoc != null)
+                    lines.insertAboveAnnotations(javadoc);
+
+                return true;
+            }
         }
 
         //classes
-        matcher = CLASS_JAVADOC_PATTERN.matcher(line);
-        if(matcher.find()) {
+        int name = matchClass(line);
+        if (name != -1) {
             //we maintain a stack of the current (inner) class in com.example.ClassName$Inner format (along with indentation)
             //if the stack is not empty we are entering a new inner class
-            String currentClass = (innerClasses.isEmpty() ? _package : innerClasses.peek().getLeft() + "$") + matcher.group("name");
-            innerClasses.push(Pair.of(currentClass, matcher.group("indent").length()));
-            String javadoc = docs.get(currentClass);
+            int classIndent = line.charAt(0) == ' ' ? indent : 0;
+            String currentClass = (innerClasses.isEmpty() ? _package : innerClasses.peek().getLeft() + "$") + line.substring(name, skipWord(line, name));
+            innerClasses.push(Pair.of(currentClass, classIndent));
+            String javadoc = getJavadoc(line.substring(0, classIndent), currentClass, true);
             if (javadoc != null) {
-                insertAboveAnnotations(lines, JavadocAdder.buildJavadoc(matcher.group("indent"), javadoc, true));
+                lines.insertAboveAnnotations(javadoc);
             }
 
             return true;
         }
 
         //detect curly braces for inner class stacking/end identification
-        matcher = CLOSING_CURLY_BRACE.matcher(line);
-        if(matcher.find()){
+        if (line.charAt(indent) == '}') {
             if(!innerClasses.isEmpty()) {
-                int len = matcher.group("indent").length();
-                if (len == innerClasses.peek().getRight()) {
+                if (indent == innerClasses.peek().getRight()) {
                     innerClasses.pop();
-                } else if (len < innerClasses.peek().getRight()) {
+                } else if (indent < innerClasses.peek().getRight()) {
                     System.err.println("Failed to properly track class blocks around class " + innerClasses.peek().getLeft() + ":" + (lines.size() + 1));
                     return false;
                 }
@@ -206,39 +222,395 @@ public class McpNames {
         return true;
     }
 
-    /** Inserts the given javadoc line into the list of lines before any annotations */
-    private static void insertAboveAnnotations(List<String> list, String line) {
-        int back = 0;
-        while (list.get(list.size() - 1 - back).trim().startsWith("@"))
-            back++;
-        list.add(list.size() - back, line);
+    /**
+     * Returns the formatted javadoc for the given name, or null if there is none. Formatted javadocs are kept for the
+     * life of this instance, which is shared between every source set renamed with these mappings.
+     */
+    private String getJavadoc(String indent, String name, boolean multiline) {
+        String javadoc = getDoc(name);
+        if (javadoc == null)
+            return null;
+        String key = indent + (multiline ? '*' : ' ') + name;
+        return javadocCache.computeIfAbsent(key, k -> JavadocAdder.buildJavadoc(indent, javadoc, multiline));
+    }
+
+    /** Returns the length of the leading run of spaces or tabs, whichever the line starts with. */
+    private static int getIndent(String line) {
+        if (line.isEmpty())
+            return 0;
+        char c = line.charAt(0);
+        if (c != ' ' && c != '\t')
+            return 0;
+        int i = 1;
+        while (i < line.length() && line.charAt(i) == c)
+            i++;
+        return i;
+    }
+
+    /**
+     * Matches {@code (?:\w+\s+)*(?<generic><[\w\W]*>\s+)?} followed by a type and a {@code func_} name and {@code (},
+     * or for fields {@code (?:\w+\s+)*} followed by a type and a {@code field_} name and {@code =} or {@code ;}.
+     * Alternatives are tried in the same order the regex would backtrack through them, returning the start of the
+     * first name found or -1.
+     */
+    private static int matchDeclaration(String line, int start, boolean method) {
+        int word = skipWord(line, start);
+        if (word > start) {
+            int next = skipSpace(line, word);
+            if (next > word) {
+                int ret = matchDeclaration(line, next, method);
+                if (ret != -1)
+                    return ret;
+            }
+        }
+
+        if (method && start < line.length() && line.charAt(start) == '<') {
+            for (int i = line.lastIndexOf('>'); i > start; i = line.lastIndexOf('>', i - 1)) {
+                int type = skipSpace(line, i + 1);
+                if (type > i + 1) {
+                    int ret = matchType(line, type, method);
+                    if (ret != -1)
+                        return ret;
+                }
+            }
+            return -1;
+        }
+
+        return matchType(line, start, method);
+    }
+
+    /** Matches {@code \w+[\w$.]*(?:<[\w\W]*>)?[\[\]]*\s+} and then the member name, returning the name start or -1. */
+    private static int matchType(String line, int start, boolean method) {
+        int len = line.length();
+        if (start >= len || !isWordChar(line.charAt(start)))
+            return -1;
+
+        int end = start + 1;
+        while (end < len && (isWordChar(line.charAt(end)) || line.charAt(end) == '$' || line.charAt(end) == '.'))
+            end++;
+
+        if (end < len && line.charAt(end) == '<') {
+            for (int i = line.lastIndexOf('>'); i > end; i = line.lastIndexOf('>', i - 1)) {
+                int ret = matchMemberName(line, skipBrackets(line, i + 1), method);
+                if (ret != -1)
+                    return ret;
+            }
+            return -1;
+        }
+
+        return matchMemberName(line, skipBrackets(line, end), method);
+    }
+
+    /** Matches {@code \s+func_[0-9]+_[a-zA-Z_]+\(} or {@code \s+field_[0-9]+_[a-zA-Z_]+ *(?:=|;)}, returning the name start or -1. */
+    private static int matchMemberName(String line, int start, boolean method) {
+        int name = skipSpace(line, start);
+        if (name == start)
+            return -1;
+
+        int len = line.length();
+        int end = getSrgEnd(line, name, method ? "func_" : "field_");
+        if (end == -1)
+            return -1;
+
+        if (method)
+            return end < len && line.charAt(end) == '(' ? name : -1;
+
+        while (end < len && line.charAt(end) == ' ')
+            end++;
+        return end < len && (line.charAt(end) == '=' || line.charAt(end) == ';') ? name : -1;
+    }
+
+    /** Matches {@code prefix[0-9]+_[a-zA-Z_]+} at start, returning the end or -1. */
+    private static int getSrgEnd(String line, int start, String prefix) {
+        if (!line.startsWith(prefix, start))
+            return -1;
+
+        int len = line.length();
+        int i = start + prefix.length();
+        int digits = i;
+        while (i < len && isDigit(line.charAt(i)))
+            i++;
+        if (i == digits || i >= len || line.charAt(i) != '_')
+            return -1;
+
+        int name = ++i;
+        while (i < len && isNameChar(line.charAt(i)))
+            i++;
+        return i == name ? -1 : i;
+    }
+
+    /**
+     * Matches {@code ^ *([\w|@]*\s)*(class|interface|@interface|enum) [\w]+}, returning the start of the class name or -1.
+     * Each modifier must be followed by exactly one whitespace character, so the candidates form a single chain and the
+     * last one to match is the one the regex would pick.
+     */
+    private static int matchClass(String line) {
+        int len = line.length();
+        int i = 0;
+        while (i < len && line.charAt(i) == ' ')
+            i++;
+
+        int ret = -1;
+        while (true) {
+            int name = matchClassKeyword(line, i);
+            if (name != -1)
+                ret = name;
+
+            while (i < len && (isWordChar(line.charAt(i)) || line.charAt(i) == '|' || line.charAt(i) == '@'))
+                i++;
+            if (i >= len || !isWhitespace(line.charAt(i)))
+                return ret;
+            i++;
+        }
+    }
+
+    private static int matchClassKeyword(String line, int start) {
+        int name;
+        if (line.startsWith("class ", start))
+            name = start + 6;
+        else if (line.startsWith("interface ", start))
+            name = start + 10;
+        else if (line.startsWith("@interface ", start))
+            name = start + 11;
+        else if (line.startsWith("enum ", start))
+            name = start + 5;
+        else
+            return -1;
+        return skipWord(line, name) > name ? name : -1;
+    }
+
+    private static int skipWord(String line, int start) {
+        while (start < line.length() && isWordChar(line.charAt(start)))
+            start++;
+        return start;
+    }
+
+    private static int skipSpace(String line, int start) {
+        while (start < line.length() && isWhitespace(line.charAt(start)))
+            start++;
+        return start;
+    }
+
+    private static int skipBrackets(String line, int start) {
+        while (start < line.length() && (line.charAt(start) == '[' || line.charAt(start) == ']'))
+            start++;
+        return start;
     }
 
     /*
      * There are certain times, such as Mixin Accessors that we wish to have the name of this method with the first character upper case.
+     * Returns null if the name is left as is.
      */
-    private String getMapped(String srg, Set<String> blacklist) {
-        if (blacklist != null && blacklist.contains(srg))
-            return srg;
-
-        boolean cap = srg.charAt(0) == 'F';
-        if (cap)
-            srg = 'f' + srg.substring(1);;
+    private String getMapped(String line, int start, int end, Set<String> blacklist) {
+        if (blacklist != null && blacklist.contains(line.substring(start, end)))
+            return null;
 
-        String ret = names.getOrDefault(srg, srg);
-        if (cap)
+        boolean cap = line.charAt(start) == 'F';
+        String ret = getName(line, start, end, cap);
+        if (ret != null && cap)
             ret = ret.substring(0, 1).toUpperCase(Locale.ENGLISH) + ret.substring(1);
         return ret;
     }
 
+    /**
+     * Replaces every SRG name in the line, matching exactly what {@code [fF]unc_[0-9]+_[a-zA-Z_]+|[fF]ield_[0-9]+_[a-zA-Z_]+|p_[\w]+_\d+_\b}
+     * would. Lines without any names to replace are returned as is, without copying.
+     */
     private String replaceInLine(String line, Set<String> blacklist) {
-        StringBuffer buf = new StringBuffer();
-        Matcher matcher = SRG_FINDER.matcher(line);
-        while (matcher.find()) {
-            // Since '$' is a valid character in identifiers, but we need to NOT treat this as a regex group, escape any occurrences
-            matcher.appendReplacement(buf, Matcher.quoteReplacement(getMapped(matcher.group(), blacklist)));
-        }
-        matcher.appendTail(buf);
-        return buf.toString();
+        StringBuilder buf = null;
+        int copied = 0;
+        int len = line.length();
+        int i = 0;
+        while (i < len) {
+            char c = line.charAt(i);
+            int end = -1;
+            if (c == 'f' || c == 'F') {
+                end = matchMember(line, i);
+            } else if (c == 'p') {
+                end = matchParam(line, i);
+            }
+
+            if (end == -1) {
+                i++;
+                continue;
+            }
+
+            String mapped = getMapped(line, i, end, blacklist);
+            if (mapped != null) {
+                if (buf == null)
+                    buf = new StringBuilder(len + 16);
+                buf.append(line, copied, i).append(mapped);
+                copied = end;
+            }
+            i = end;
+        }
+
+        if (buf == null)
+            return line;
+        return buf.append(line, copied, len).toString();
+    }
+
+    /** Matches {@code [fF]unc_[0-9]+_[a-zA-Z_]+} or {@code [fF]ield_[0-9]+_[a-zA-Z_]+} at start, returning the end or -1. */
+    private static int matchMember(String line, int start) {
+        int i;
+        if (line.startsWith("unc_", start + 1))
+            i = start + 5;
+        else if (line.startsWith("ield_", start + 1))
+            i = start + 6;
+        else
+            return -1;
+
+        int len = line.length();
+        int digits = i;
+        while (i < len && isDigit(line.charAt(i)))
+            i++;
+        if (i == digits || i == len || line.charAt(i) != '_')
+            return -1;
+        i++;
+
+        int name = i;
+        while (i < len && isNameChar(line.charAt(i)))
+            i++;
+        return i == name ? -1 : i;
+    }
+
+    /** Matches {@code p_[\w]+_\d+_\b} at start, returning the end or -1. */
+    private static int matchParam(String line, int start) {
+        int len = line.length();
+        if (start + 1 >= len || line.charAt(start + 1) != '_')
+            return -1;
+
+        // Everything matched is a word character, and the trailing \b can't sit between two of them, so the match can only end with the run.
+        int end = start + 2;
+        while (end < len && isWordChar(line.charAt(end)))
+            end++;
+        if (end < len && isBoundaryWordChar(line.charAt(end)))
+            return -1;
+
+        // Work backwards: '_' digits '_', leaving at least one character for [\w]+
+        int i = end - 1;
+        if (line.charAt(i) != '_')
+            return -1;
+        int digits = --i;
+        while (i > start + 2 && isDigit(line.charAt(i)))
+            i--;
+        if (i == digits || line.charAt(i) != '_' || i < start + 3)
+            return -1;
+        return end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isNameChar(c) || isDigit(c);
+    }
+
+    /** Matches {@code \s}, which unlike {@link Character#isWhitespace(char)} does not include the other control separators. */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /** On Java 8, the regex \b uses a wider, unicode aware, definition of word characters than \w does. */
+    private static boolean isBoundaryWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Splits on \\n, \\r and \\r\\n like {@link java.io.BufferedReader#readLine()}, except that a trailing line
+     * separator is followed by one last empty line.
+     */
+    private static class LineReader {
+        private final Reader reader;
+        private final Iterator<String> lines;
+        private final StringBuilder buf = new StringBuilder();
+        private boolean done = false;
+
+        private LineReader(Reader reader) {
+            this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
+            this.lines = null;
+        }
+
+        private LineReader(Iterator<String> lines) {
+            this.reader = null;
+            this.lines = lines;
+        }
+
+        private String readLine() throws IOException {
+            if (lines != null)
+                return lines.hasNext() ? lines.next() : null;
+            if (done)
+                return null;
+
+            buf.setLength(0);
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n')
+                    return buf.toString();
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n')
+                        reader.reset();
+                    return buf.toString();
+                }
+                buf.append((char)c);
+            }
+            done = true;
+            return buf.toString();
+        }
+    }
+
+    /**
+     * Writes lines as they are produced, holding back trailing annotation lines in case a javadoc needs to go above them.
+     */
+    private static class LineWriter {
+        private final Writer writer;
+        private final Deque<String> annotations = new ArrayDeque<>();
+        private int written = 0;
+
+        private LineWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        private int size() {
+            return written + annotations.size();
+        }
+
+        private void add(String line) throws IOException {
+            if (line.trim().startsWith("@")) {
+                annotations.add(line);
+            } else {
+                drain();
+                write(line);
+            }
+        }
+
+        /** Inserts the given javadoc line before any annotations */
+        private void insertAboveAnnotations(String line) throws IOException {
+            write(line);
+        }
+
+        /** Writes out the queued annotations, leaving the underlying writer to buffer them. */
+        private void drain() throws IOException {
+            while (!annotations.isEmpty())
+                write(annotations.poll());
+        }
+
+        /** Called once at the end of the file. */
+        private void flush() throws IOException {
+            drain();
+            writer.flush();
+        }
+
+        private void write(String line) throws IOException {
+            if (written++ > 0)
+                writer.write(NEWLINE);
+            writer.write(line);
+        }
     }
 }
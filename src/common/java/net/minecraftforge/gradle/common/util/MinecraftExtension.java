@@ -44,6 +44,11 @@ public abstract class MinecraftExtension extends GroovyObjectSupport {
     protected final Property<String> mappingVersion;
     protected final ConfigurableFileCollection accessTransformers;
     protected final ConfigurableFileCollection sideAnnotationStrippers;
+    protected final Property<String> intermediateCompression;
+    protected final Property<String> outputCompression;
+    protected final Property<Integer> toolMemory;
+    protected final Property<Integer> toolHeap;
+    protected final Property<Integer> toolCpus;
 
     @Inject
     public MinecraftExtension(final Project project) {
@@ -54,6 +59,11 @@ public abstract class MinecraftExtension extends GroovyObjectSupport {
         mappingVersion = objects.property(String.class);
         accessTransformers = objects.fileCollection();
         sideAnnotationStrippers = objects.fileCollection();
+        intermediateCompression = objects.property(String.class);
+        outputCompression = objects.property(String.class);
+        toolMemory = objects.property(Integer.class);
+        toolHeap = objects.property(Integer.class);
+        toolCpus = objects.property(Integer.class);
 
         this.runs = project.container(RunConfig.class, name -> new RunConfig(project, name));
     }
@@ -134,4 +144,39 @@ public abstract class MinecraftExtension extends GroovyObjectSupport {
     public ConfigurableFileCollection getSideAnnotationStrippers() {
         return this.sideAnnotationStrippers;
     }
+
+    /**
+     * Compression for jars only read by the next setup step: store, default, or 0-9. See {@link ZipCompression}.
+     */
+    public Property<String> getIntermediateCompression() {
+        return this.intermediateCompression;
+    }
+
+    /**
+     * Compression for jars handed to Gradle and IDEs: store, default, or 0-9. See {@link ZipCompression}.
+     */
+    public Property<String> getOutputCompression() {
+        return this.outputCompression;
+    }
+
+    /**
+     * Megabytes all forked tools may use at once, more are queued. See {@link ToolGovernor}.
+     */
+    public Property<Integer> getToolMemory() {
+        return this.toolMemory;
+    }
+
+    /**
+     * Heap in megabytes for forked tools that don't ask for one. See {@link ToolGovernor}.
+     */
+    public Property<Integer> getToolHeap() {
+        return this.toolHeap;
+    }
+
+    /**
+     * Processors each forked tool sees, and sizes its threads from. See {@link ToolGovernor}.
+     */
+    public Property<Integer> getToolCpus() {
+        return this.toolCpus;
+    }
 }
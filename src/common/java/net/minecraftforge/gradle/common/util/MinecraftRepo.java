@@ -26,18 +26,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
@@ -310,9 +306,9 @@ public class MinecraftRepo extends BaseRepo {
     }
 
     public static void splitJar(File raw, InputStream mappings, File output, boolean slim, boolean stable) throws IOException {
-        try (ZipFile zin = new ZipFile(raw);
+        try (ZipReader zin = new ZipReader(raw);
              FileOutputStream fos = new FileOutputStream(output);
-             ZipOutputStream out = new ZipOutputStream(fos)) {
+             ZipWriter out = new ZipWriter(fos)) {
 
             Set<String> whitelist = new HashSet<>();
             List<String> lines = Utils.lines(mappings).map(line -> line.split("#")[0]).filter(l -> !Strings.isNullOrEmpty(l.trim())).collect(Collectors.toList()); //Strip comments and empty lines
@@ -322,27 +318,16 @@ public class MinecraftRepo extends BaseRepo {
             .filter(pts -> pts.length == 2 && !pts[0].endsWith("/")) //Skip packages
             .forEach(pts -> whitelist.add(pts[0]));
 
-            for (Enumeration<? extends ZipEntry> entries = zin.entries(); entries.hasMoreElements();) {
-                ZipEntry entry = entries.nextElement();
+            for (ZipReader.Entry entry : zin.getEntries()) {
                 String name = entry.getName();
                 if (name.endsWith(".class")) {
                     boolean isNotch = whitelist.contains(name.substring(0, name.length() - 6 /*.class*/));
                     if (slim == isNotch) {
-                        ZipEntry _new = Utils.getStableEntry(name, stable ? Utils.ZIPTIME : 0);
-                        out.putNextEntry(_new);
-                        try (InputStream ein = zin.getInputStream(entry)) {
-                            IOUtils.copy(ein, out);
-                        }
-                        out.closeEntry();
+                        out.copyEntry(entry, Utils.getStableEntry(name, stable ? Utils.ZIPTIME : 0));
                     }
                 } else {
                     if (!slim) {
-                        ZipEntry _new = Utils.getStableEntry(name, stable ? Utils.ZIPTIME : 0);
-                        out.putNextEntry(_new);
-                        try (InputStream ein = zin.getInputStream(entry)) {
-                            IOUtils.copy(ein, out);
-                        }
-                        out.closeEntry();
+                        out.copyEntry(entry, Utils.getStableEntry(name, stable ? Utils.ZIPTIME : 0));
                     }
                 }
             }
@@ -359,20 +344,14 @@ public class MinecraftRepo extends BaseRepo {
                 .add("codever", "1");
 
         if (!cache.isSame() || !extra.exists()) {
-            try (ZipFile zin = new ZipFile(raw);
+            try (ZipReader zin = new ZipReader(raw);
                  FileOutputStream fos = new FileOutputStream(extra);
-                 ZipOutputStream out = new ZipOutputStream(fos)) {
+                 ZipWriter out = new ZipWriter(fos)) {
 
-                for (Enumeration<? extends ZipEntry> entries = zin.entries(); entries.hasMoreElements();) {
-                    ZipEntry entry = entries.nextElement();
+                for (ZipReader.Entry entry : zin.getEntries()) {
                     String name = entry.getName();
                     if (!name.endsWith(".class")) {
-                        ZipEntry _new = Utils.getStableEntry(name, stable || forceStable ? Utils.ZIPTIME : 0);
-                        out.putNextEntry(_new);
-                        try (InputStream ein = zin.getInputStream(entry)) {
-                            IOUtils.copy(ein, out);
-                        }
-                        out.closeEntry();
+                        out.copyEntry(entry, Utils.getStableEntry(name, stable || forceStable ? Utils.ZIPTIME : 0));
                     }
                 }
             }
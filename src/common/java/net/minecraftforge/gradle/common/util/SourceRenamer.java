@@ -0,0 +1,138 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+/**
+ * Renames source files in a zip on a shared pool, writing the results in the original entry order so the output stays
+ * reproducible. The reading thread blocks once too much data is waiting to be written. Entries that are not renamed
+ * are copied without being recompressed.
+ * <p>
+ * Thread count and in flight limit are set with {@code net.minecraftforge.gradle.rename.threads} (default: all cores)
+ * and {@code net.minecraftforge.gradle.rename.buffer} (megabytes, default 64).
+ */
+public class SourceRenamer {
+    private static final int THREADS = Integer.getInteger("net.minecraftforge.gradle.rename.threads", Runtime.getRuntime().availableProcessors());
+    private static final long MAX_IN_FLIGHT = Long.getLong("net.minecraftforge.gradle.rename.buffer", 64) * 1024 * 1024;
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, THREADS));
+
+    @FunctionalInterface
+    public interface Renamer {
+        void rename(String name, InputStream input, OutputStream output) throws IOException;
+    }
+
+    /**
+     * Copies every entry from zin to zout with stable timestamps, passing the entries accepted by filter through renamer.
+     */
+    public static void rename(ZipReader zin, ZipWriter zout, Predicate<String> filter, Renamer renamer) throws IOException {
+        Deque<Pending> pending = new ArrayDeque<>();
+        long inFlight = 0;
+        int maxEntries = Math.max(1, THREADS) * 4;
+
+        for (ZipReader.Entry entry : zin.getEntries()) {
+            String name = entry.getName();
+            if (filter.test(name)) {
+                byte[] data;
+                try (InputStream in = zin.getInputStream(entry)) {
+                    data = IOUtils.toByteArray(in);
+                }
+                CompletableFuture<ByteArrayOutputStream> result = CompletableFuture.supplyAsync(() -> {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream(data.length + data.length / 8);
+                    try {
+                        renamer.rename(name, new ByteArrayInputStream(data), output);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    return output;
+                }, POOL);
+                pending.add(new Pending(name, data.length, null, result));
+                inFlight += data.length;
+            } else {
+                pending.add(new Pending(name, 0, entry, null));
+            }
+
+            // Write everything already done, and block on the oldest entry if we are holding too much.
+            while (!pending.isEmpty() && (pending.peek().isDone() || inFlight > MAX_IN_FLIGHT || pending.size() > maxEntries))
+                inFlight -= write(zout, pending.poll());
+        }
+
+        while (!pending.isEmpty())
+            write(zout, pending.poll());
+    }
+
+    private static long write(ZipWriter zout, Pending entry) throws IOException {
+        if (entry.entry != null) {
+            zout.copyEntry(entry.entry, Utils.getStableEntry(entry.name));
+            return entry.size;
+        }
+
+        ByteArrayOutputStream data;
+        try {
+            data = entry.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while renaming " + entry.name, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new RuntimeException("Failed to rename " + entry.name, cause);
+        }
+        zout.putNextEntry(Utils.getStableEntry(entry.name));
+        data.writeTo(zout);
+        zout.closeEntry();
+        return entry.size;
+    }
+
+    private static class Pending {
+        private final String name;
+        private final long size;
+        private final ZipReader.Entry entry;
+        private final CompletableFuture<ByteArrayOutputStream> result;
+
+        private Pending(String name, long size, ZipReader.Entry entry, CompletableFuture<ByteArrayOutputStream> result) {
+            this.name = name;
+            this.size = size;
+            this.entry = entry;
+            this.result = result;
+        }
+
+        private boolean isDone() {
+            return entry != null || result.isDone();
+        }
+    }
+}
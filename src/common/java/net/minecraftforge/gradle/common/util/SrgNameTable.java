@@ -0,0 +1,242 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table from the numbers in SRG names to rows of a {@link MappingIndex}. {@code func_<id>_<suffix>},
+ * {@code field_<id>_<suffix>}, {@code p_<id>_<index>_} and {@code p_i<id>_<index>_} are keyed by their numbers in an
+ * open addressed table, filled once from the index, so lookups are a hash probe and a suffix compare instead of a
+ * binary search per CSV, straight from the scanned characters. Names that don't have one of these shapes, or that
+ * share their numbers with another name, are binary searched in the index instead.
+ */
+final class SrgNameTable {
+    private static final long FUNC = 1L << 60;
+    private static final long FIELD = 2L << 60;
+    private static final long PARAM = 3L << 60;
+    private static final long CTOR_PARAM = 4L << 60;
+    private static final long MAX_ID = (1L << 40) - 1;
+    private static final int MAX_INDEX = (1 << 16) - 1;
+    private static final int MAX_ROW = (1 << 24) - 1;
+    private static final int SEARCH = -1; // More than one name for the key, search the index
+
+    private final List<MappingIndex.Section> sections;
+    private final long[] keys; // 0 is empty, every real key has a kind bit set
+    private final int[] values; // Section << 24 | row
+    private final String[] suffixes;
+    private final String[] mapped; // Decoded on first use
+    private final boolean searchOthers;
+
+    SrgNameTable(List<MappingIndex.Section> sections) {
+        this.sections = sections;
+
+        int rows = 0;
+        for (MappingIndex.Section section : sections)
+            rows += section.size();
+        int capacity = 256;
+        while (capacity < rows * 2)
+            capacity <<= 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.suffixes = new String[capacity];
+        this.mapped = new String[capacity];
+        Map<String, String> suffixPool = new HashMap<>();
+
+        // Later sections replace earlier ones, as with the CSVs
+        boolean searchOthers = false;
+        for (int x = 0; x < sections.size(); x++) {
+            MappingIndex.Section section = sections.get(x);
+            for (int row = 0; row < section.size(); row++) {
+                CharSequence name = section.getObfBytes(row);
+                long key = parse(name, 0, name.length(), false);
+                if (key == -1) {
+                    searchOthers = true;
+                    continue;
+                }
+                String suffix = name.subSequence(getSuffixOffset(key, name.length()), name.length()).toString();
+                int slot = find(key);
+                if (keys[slot] != key) {
+                    keys[slot] = key;
+                    suffixes[slot] = suffixPool.computeIfAbsent(suffix, k -> k);
+                } else if (values[slot] == SEARCH) {
+                    continue;
+                } else if (!suffix.equals(suffixes[slot])) {
+                    values[slot] = SEARCH; // Same number, different suffix. Not seen in real mappings, but keep it correct.
+                    continue;
+                }
+                values[slot] = x > 0xFF || row > MAX_ROW ? SEARCH : x << 24 | row;
+            }
+        }
+        this.searchOthers = searchOthers;
+    }
+
+    /**
+     * @param lowerFirst Treat the first character as lower case, for the capitalised Func_/Field_ forms.
+     * @return The mapped name for the SRG name in {@code chars[start, end)} from the last CSV that has it, or null.
+     */
+    String getMapped(CharSequence chars, int start, int end, boolean lowerFirst) {
+        long key = parse(chars, start, end, lowerFirst);
+        if (key != -1) {
+            int slot = find(key);
+            if (keys[slot] != key)
+                return null;
+            int value = values[slot];
+            if (value != SEARCH) {
+                if (!suffixMatches(suffixes[slot], chars, start + getSuffixOffset(key, end - start), end))
+                    return null;
+                // Racy like the index's own strings, at worst it is decoded twice
+                String ret = mapped[slot];
+                if (ret == null) {
+                    ret = sections.get(value >>> 24).getMapped(value & MAX_ROW);
+                    mapped[slot] = ret;
+                }
+                return ret;
+            }
+        } else if (!searchOthers) {
+            return null;
+        }
+
+        for (int x = sections.size() - 1; x >= 0; x--) {
+            MappingIndex.Section section = sections.get(x);
+            int row = section.find(chars, start, end, lowerFirst);
+            if (row != -1)
+                return section.getMapped(row);
+        }
+        return null;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (keys[slot] != 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static boolean suffixMatches(String suffix, CharSequence chars, int start, int end) {
+        if (suffix.length() != end - start)
+            return false;
+        for (int x = 0; x < suffix.length(); x++) {
+            if (suffix.charAt(x) != chars.charAt(start + x))
+                return false;
+        }
+        return true;
+    }
+
+    /** Where the suffix starts, relative to the start of the name. Parameters are fully described by their key, so have none. */
+    private static int getSuffixOffset(long key, int length) {
+        long kind = key & (0xFL << 60);
+        if (kind != FUNC && kind != FIELD)
+            return length;
+        return (kind == FUNC ? 5 : 6) + digits(key & MAX_ID) + 1;
+    }
+
+    private static int digits(long value) {
+        int ret = 1;
+        while (value >= 10) {
+            value /= 10;
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * @return The numeric key for an SRG name, or -1 if the name doesn't have one of the expected shapes.
+     */
+    private static long parse(CharSequence chars, int start, int end, boolean lowerFirst) {
+        if (end - start < 4)
+            return -1;
+        char first = chars.charAt(start);
+        if (lowerFirst)
+            first = Character.toLowerCase(first);
+
+        if (first == 'f') {
+            long kind;
+            int i;
+            if (regionMatches(chars, start + 1, end, "unc_")) {
+                kind = FUNC;
+                i = start + 5;
+            } else if (regionMatches(chars, start + 1, end, "ield_")) {
+                kind = FIELD;
+                i = start + 6;
+            } else {
+                return -1;
+            }
+            int idEnd = skipNumber(chars, i, end);
+            if (idEnd == -1 || idEnd + 1 >= end || chars.charAt(idEnd) != '_')
+                return -1;
+            return kind | parseNumber(chars, i, idEnd);
+        }
+
+        if (first == 'p' && chars.charAt(start + 1) == '_') {
+            long kind = PARAM;
+            int i = start + 2;
+            if (chars.charAt(i) == 'i') {
+                kind = CTOR_PARAM;
+                i++;
+            }
+            int idEnd = skipNumber(chars, i, end);
+            if (idEnd == -1 || idEnd >= end || chars.charAt(idEnd) != '_')
+                return -1;
+            int indexEnd = skipNumber(chars, idEnd + 1, end);
+            if (indexEnd != end - 1 || chars.charAt(indexEnd) != '_')
+                return -1;
+            long index = parseNumber(chars, idEnd + 1, indexEnd);
+            if (index > MAX_INDEX)
+                return -1;
+            return kind | (index << 40) | parseNumber(chars, i, idEnd);
+        }
+
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence chars, int start, int end, String expected) {
+        if (end - start < expected.length())
+            return false;
+        for (int x = 0; x < expected.length(); x++) {
+            if (chars.charAt(start + x) != expected.charAt(x))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The end of a run of digits starting at start, or -1 if there are none, it has a leading zero or is too big to key on.
+     */
+    private static int skipNumber(CharSequence chars, int start, int end) {
+        int i = start;
+        while (i < end && chars.charAt(i) >= '0' && chars.charAt(i) <= '9')
+            i++;
+        if (i == start || i - start > 12 || (chars.charAt(start) == '0' && i - start > 1))
+            return -1;
+        return i;
+    }
+
+    private static long parseNumber(CharSequence chars, int start, int end) {
+        long ret = 0;
+        for (int i = start; i < end; i++)
+            ret = ret * 10 + (chars.charAt(i) - '0');
+        return ret;
+    }
+}
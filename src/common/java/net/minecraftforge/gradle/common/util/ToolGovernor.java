@@ -0,0 +1,353 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the tool JVMs we fork within the machine's memory, so parallel tasks or several repo resolutions at once
+ * don't start more decompilers than fit, and swap.
+ * <p>
+ * Every fork is given an explicit {@code -Xmx}: what the tool asked for, untouched, or the tool heap capped to the budget
+ * when it didn't ask. Starting a fork reserves its heap plus some overhead, and waits while the reservations of the
+ * running forks and idle workers would exceed the budget. Idle workers are stopped first to make room, and a tool that
+ * asks for more than the whole budget runs once nothing else does.
+ * <p>
+ * The budget defaults to three quarters of physical memory minus this JVM's own heap, and the tool heap to a quarter
+ * of physical memory, the JVM's own default. They are set in megabytes with {@code net.minecraftforge.gradle.tools.memory}
+ * and {@code net.minecraftforge.gradle.tools.heap}. {@code net.minecraftforge.gradle.tools.cpus} limits the processors
+ * each fork sees, which tools size their thread pools from. All three can be set from the {@code minecraft} extension,
+ * which takes priority until the end of the build. Projects that set the same limit must agree on it.
+ * <p>
+ * Tools run in process share this JVM's heap and are not governed.
+ */
+public final class ToolGovernor {
+    private static final long MB = 1024 * 1024;
+    private static final long OVERHEAD = 256; // Metaspace, code cache and thread stacks on top of the heap
+    private static final long PHYSICAL = getPhysicalMemory() / MB;
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
+    private static final Logger LOGGER = Logging.getLogger(ToolGovernor.class);
+    private static final List<Usage> USAGES = new ArrayList<>();
+    private static final Set<Gradle> REGISTERED = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private static final long DEFAULT_BUDGET = getDefault("memory", PHYSICAL <= 0 ? 0 : Math.max(PHYSICAL * 3 / 4 - Runtime.getRuntime().maxMemory() / MB, 1024));
+    private static final long DEFAULT_HEAP = getDefault("heap", PHYSICAL <= 0 ? 0 : Math.max(PHYSICAL / 4, 256));
+    private static final long DEFAULT_CPUS = getDefault("cpus", 0);
+
+    private static volatile long budget = DEFAULT_BUDGET;
+    private static volatile long heap = DEFAULT_HEAP;
+    private static volatile long cpus = DEFAULT_CPUS;
+    private static long reserved;
+    private static final Map<String, String> CONFIGURED_BY = new HashMap<>();
+
+    private ToolGovernor() {}
+
+    /**
+     * Overrides the limits until the end of the build. Null values leave a limit as it is.
+     *
+     * @param project Path of the project setting them, for the error if another project set a different limit.
+     */
+    public static synchronized void configure(String project, Integer memory, Integer heap, Integer cpus) {
+        ToolGovernor.budget = override("toolMemory", project, memory, ToolGovernor.budget);
+        ToolGovernor.heap = override("toolHeap", project, heap, ToolGovernor.heap);
+        ToolGovernor.cpus = override("toolCpus", project, cpus, ToolGovernor.cpus);
+    }
+
+    private static long override(String name, String project, Integer value, long current) {
+        if (value == null)
+            return current;
+        String previous = CONFIGURED_BY.putIfAbsent(name, project);
+        if (previous != null && current != value)
+            throw new IllegalArgumentException("Conflicting minecraft." + name + ": " + value + " in " + project + " but " + current + " in " + previous
+                + ". Set it to the same value in every project, or only in one");
+        return value;
+    }
+
+    private static synchronized void reset() {
+        CONFIGURED_BY.clear();
+        budget = DEFAULT_BUDGET;
+        heap = DEFAULT_HEAP;
+        cpus = DEFAULT_CPUS;
+    }
+
+    /**
+     * Returns the JVM args to fork the tool with, with its heap and processor count assigned.
+     */
+    public static List<String> getJvmArgs(List<String> jvmArgs) {
+        List<String> ret = new ArrayList<>();
+        String xmx = null;
+        for (String arg : jvmArgs) {
+            if (arg.startsWith("-Xmx"))
+                xmx = arg;
+            else if (!arg.startsWith("-XX:ActiveProcessorCount=") || cpus <= 0)
+                ret.add(arg);
+        }
+
+        if (xmx != null) {
+            ret.add(xmx); // Lowering it could run the tool out of memory, so acquire queues it instead
+        } else if (heap > 0) {
+            long assigned = heap;
+            if (budget > 0 && assigned > budget - OVERHEAD)
+                assigned = Math.max(budget - OVERHEAD, 256);
+            ret.add("-Xmx" + assigned + "m");
+        }
+        if (cpus > 0 && cpus < CPUS && supportsProcessorCount())
+            ret.add("-XX:ActiveProcessorCount=" + cpus);
+        return ret;
+    }
+
+    /**
+     * Reserves memory for a tool JVM started with the given args, waiting until it fits in the budget.
+     */
+    public static Lease acquire(String tool, List<String> jvmArgs) throws InterruptedException {
+        long size = OVERHEAD;
+        for (String arg : jvmArgs) {
+            if (arg.startsWith("-Xmx"))
+                size = OVERHEAD + Math.max(parseHeap(arg), 0);
+        }
+
+        long start = System.nanoTime();
+        boolean logged = false;
+        while (true) {
+            synchronized (ToolGovernor.class) {
+                // Anything bigger than the whole budget runs once nothing else is.
+                if (budget <= 0 || reserved == 0 || reserved + size <= budget) {
+                    reserved += size;
+                    return new Lease(tool, size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+            // Outside our lock, as stopping workers releases their leases
+            if (ToolWorkerPool.stopIdleWorkers())
+                continue;
+            synchronized (ToolGovernor.class) {
+                if (reserved != 0 && reserved + size > budget) {
+                    if (!logged) {
+                        logged = true;
+                        LOGGER.lifecycle("Waiting for memory to run " + tool + ": " + reserved + "MB of " + budget + "MB in use by other tools");
+                    }
+                    ToolGovernor.class.wait(1000);
+                }
+            }
+        }
+    }
+
+    private static synchronized void release(long size) {
+        reserved -= size;
+        ToolGovernor.class.notifyAll();
+    }
+
+    /**
+     * Records a finished tool run.
+     *
+     * @param peakRss Peak resident memory of the worker it ran in, in bytes, or -1 for forks, whose process Gradle doesn't expose.
+     */
+    public static void record(Lease lease, long durationMs, long peakRss) {
+        synchronized (USAGES) {
+            USAGES.add(new Usage(lease.tool, lease.size - OVERHEAD, lease.waitedMs, durationMs, peakRss));
+        }
+        lease.waitedMs = 0; // Only the first run on a lease waited for it
+        if (peakRss >= 0)
+            Trace.recordChildPeakRss(peakRss);
+    }
+
+    /**
+     * Peak resident memory of a process, where the OS exposes it, or -1.
+     */
+    static long getPeakRss(Process process) {
+        long pid = getPid(process);
+        if (pid <= 0)
+            return -1;
+        try {
+            for (String line : Files.readAllLines(new File("/proc/" + pid + "/status").toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:") && line.endsWith(" kB"))
+                    return Long.parseLong(line.substring(6, line.length() - 3).trim()) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or already gone
+        }
+        return -1;
+    }
+
+    /**
+     * Logs what each tool used when the build finishes, once per build no matter how many projects ask.
+     */
+    public static void register(Gradle gradle, Logger logger) {
+        synchronized (REGISTERED) {
+            if (!REGISTERED.add(gradle))
+                return;
+        }
+        gradle.buildFinished(result -> {
+            long limit = budget;
+            reset(); // The next build in this daemon starts from the system properties again
+
+            List<Usage> usages;
+            synchronized (USAGES) {
+                usages = new ArrayList<>(USAGES);
+                USAGES.clear();
+            }
+            if (usages.isEmpty())
+                return;
+
+            long waited = usages.stream().mapToLong(u -> u.waitedMs).sum();
+            String header = "ForgeGradle tools: " + usages.size() + " tool runs, " + waited + "ms waiting for memory, budget " + limit + "MB";
+            if (waited > 0)
+                logger.lifecycle(header);
+            else
+                logger.info(header);
+            for (Usage usage : usages) {
+                String line = "  " + usage.tool + " (heap " + usage.heapMb + "MB, " + usage.durationMs + "ms, waited " + usage.waitedMs + "ms"
+                        + (usage.peakRss < 0 ? "" : ", peak RSS " + CacheCleaner.formatSize(usage.peakRss)) + ")";
+                if (waited > 0)
+                    logger.lifecycle(line);
+                else
+                    logger.info(line);
+            }
+        });
+    }
+
+    /**
+     * Reads the size of an {@code -Xmx} arg in megabytes, or 0 if it can't be read.
+     */
+    private static long parseHeap(String arg) {
+        String value = arg.substring(4).toLowerCase(Locale.ENGLISH);
+        if (value.isEmpty())
+            return 0;
+        char unit = value.charAt(value.length() - 1);
+        try {
+            long size = Long.parseLong(Character.isDigit(unit) ? value : value.substring(0, value.length() - 1));
+            switch (unit) {
+                case 't': return size * 1024 * 1024;
+                case 'g': return size * 1024;
+                case 'm': return size;
+                case 'k': return Math.max(size / 1024, 1);
+                default:  return Character.isDigit(unit) ? Math.max(size / MB, 1) : 0;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long getDefault(String name, long value) {
+        return Long.getLong("net.minecraftforge.gradle.tools." + name, value);
+    }
+
+    private static long getPhysicalMemory() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            Method method = bean.getClass().getMethod("getTotalPhysicalMemorySize");
+            method.setAccessible(true);
+            return (Long)method.invoke(bean);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1; // Not a HotSpot JVM, run forks ungoverned
+        }
+    }
+
+    /**
+     * -XX:ActiveProcessorCount was added in 8u191, and older JVMs refuse to start with it.
+     */
+    private static boolean supportsProcessorCount() {
+        String version = System.getProperty("java.version");
+        if (!version.startsWith("1.8.0_"))
+            return true;
+        try {
+            return Integer.parseInt(version.substring(6).split("[^0-9]")[0]) >= 191;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long getPid(Process process) {
+        try {
+            return (Long)Process.class.getMethod("pid").invoke(process); // Java 9+
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Field field = process.getClass().getDeclaredField("pid"); // Java 8's UNIXProcess
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Memory reserved for one tool JVM, released by {@link #close()}.
+     */
+    public static class Lease implements AutoCloseable {
+        private final String tool;
+        private final long size;
+        private long waitedMs;
+        private boolean closed;
+
+        private Lease(String tool, long size, long waitedMs) {
+            this.tool = tool;
+            this.size = size;
+            this.waitedMs = waitedMs;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            release(size);
+        }
+    }
+
+    private static class Usage {
+        private final String tool;
+        private final long heapMb;
+        private final long waitedMs;
+        private final long durationMs;
+        private final long peakRss;
+
+        private Usage(String tool, long heapMb, long waitedMs, long durationMs, long peakRss) {
+            this.tool = tool;
+            this.heapMb = heapMb;
+            this.waitedMs = waitedMs;
+            this.durationMs = durationMs;
+            this.peakRss = peakRss;
+        }
+    }
+}
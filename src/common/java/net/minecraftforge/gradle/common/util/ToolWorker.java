@@ -0,0 +1,189 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.Permission;
+
+/**
+ * Main class of the long lived JVMs started by {@link ToolWorkerPool}. This runs in a JVM of its own with nothing
+ * else on the classpath, so it must only use the JDK.
+ * <p>
+ * The tool's classpath is given on the command line. Each job read from stdin runs the given main class in a class
+ * loader of its own, which is closed once the job is done, so statics don't carry over from one run to the next. What
+ * it prints to stdout and stderr is sent back over stdout, followed by its exit code. See {@link ToolWorkerPool} for
+ * the format. Only the JVM itself is kept warm.
+ */
+public class ToolWorker {
+    static final int FRAME_OUTPUT = 1;
+    static final int FRAME_EXIT = 2;
+    static final int FRAME_ERROR = 3;
+
+    private static volatile boolean running;
+
+    public static void main(String[] args) throws Exception {
+        URL[] urls = new URL[args.length];
+        for (int x = 0; x < args.length; x++)
+            urls[x] = new File(args[x]).toURI().toURL();
+        ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        PrintStream stdout = new PrintStream(new FrameOutputStream(out, FRAME_OUTPUT), true);
+        PrintStream stderr = new PrintStream(new FrameOutputStream(out, FRAME_ERROR), true);
+        System.setOut(stdout);
+        System.setErr(stderr);
+
+        // Without a way to trap System.exit, tools that call it end this JVM, and the pool sees the exit code as a fork would.
+        try {
+            System.setSecurityManager(new ExitTrap());
+        } catch (SecurityException | UnsupportedOperationException e) {
+            // Nothing we can do
+        }
+
+        while (true) {
+            String mainClass;
+            String[] toolArgs;
+            try {
+                mainClass = readString(in);
+                toolArgs = new String[in.readInt()];
+                for (int x = 0; x < toolArgs.length; x++)
+                    toolArgs[x] = readString(in);
+            } catch (EOFException e) {
+                return; // The pool is gone
+            }
+
+            int exit;
+            try (URLClassLoader loader = new URLClassLoader(urls, parent)) {
+                Thread.currentThread().setContextClassLoader(loader);
+                exit = run(loader, mainClass, toolArgs, stderr);
+            } finally {
+                Thread.currentThread().setContextClassLoader(null);
+            }
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(FRAME_EXIT);
+                out.writeInt(exit);
+                out.flush();
+            }
+        }
+    }
+
+    private static int run(ClassLoader loader, String mainClass, String[] args, PrintStream err) {
+        running = true;
+        try {
+            Class.forName(mainClass, true, loader).getMethod("main", String[].class).invoke(null, (Object)args);
+            return 0;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof ExitException)
+                return ((ExitException)e.getCause()).status;
+            err.print("Exception in thread \"main\" ");
+            e.getCause().printStackTrace(err);
+            return 1;
+        } catch (Throwable e) {
+            e.printStackTrace(err);
+            return 1;
+        } finally {
+            running = false;
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        private ExitException(int status) {
+            super("System.exit(" + status + ")");
+            this.status = status;
+        }
+    }
+
+    private static class ExitTrap extends SecurityManager {
+        @Override
+        public void checkExit(int status) {
+            if (running)
+                throw new ExitException(status);
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+    }
+
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int type;
+
+        private FrameOutputStream(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived JVMs for tools that can't run in process, because they need JVM args of their own such as a bigger heap.
+ * Workers are kept per tool classpath and JVM args, and are reused by later runs, so the JVM start up, class loading
+ * and JIT warm up are only paid once. Workers run one job at a time, and more are started when they are all busy.
+ * <p>
+ * Jobs are sent to the worker's stdin as the main class and arguments, each string being a length prefixed UTF-8
+ * string. The worker answers on stdout with {@code OUTPUT length bytes} and {@code ERROR length bytes} frames for
+ * everything the tool prints to stdout and stderr, and a final {@code EXIT code} frame. The tool's stdout goes to
+ * the log and its stderr to this JVM's, as with a fork. If the worker dies instead, its exit code is used, just like
+ * a forked JVM. Each job gets a fresh class loader for the tool, so only the JVM is reused.
+ * <p>
+ * A JVM can't change its working directory, so workers are also kept per working directory and started in it.
+ * <p>
+ * Workers are opt-in with {@code -Dnet.minecraftforge.gradle.tools.workers=true}, otherwise callers fork. Idle
+ * workers are stopped after {@code net.minecraftforge.gradle.tools.worker_timeout} seconds, 300 by default.
+ * <p>
+ * Each worker holds a {@link ToolGovernor} lease for its heap while it is alive, idle or not.
+ */
+public final class ToolWorkerPool {
+    private static final boolean ENABLED = Boolean.getBoolean("net.minecraftforge.gradle.tools.workers");
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(Long.getLong("net.minecraftforge.gradle.tools.worker_timeout", 300));
+    private static final Map<String, Deque<Worker>> IDLE = new HashMap<>();
+    private static ScheduledExecutorService reaper;
+
+    private ToolWorkerPool() {}
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Runs the main class from the classpath on a worker started with the JVM args in the working directory, sending
+     * its output to the log.
+     *
+     * @return The exit code the tool would have exited a forked JVM with.
+     */
+    public static int run(List<File> classpath, List<String> jvmArgs, File workDir, String mainClass, List<String> args, OutputStream log) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        for (File file : classpath)
+            buf.append(HashFunction.SHA1.hash(file)).append(';');
+        buf.append(String.join(" ", jvmArgs)).append(';');
+        buf.append(workDir.getAbsolutePath());
+        String key = buf.toString();
+
+        Worker worker = acquire(key);
+        if (worker == null) {
+            ToolGovernor.Lease lease;
+            try {
+                lease = ToolGovernor.acquire(mainClass, jvmArgs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            try {
+                worker = new Worker(classpath, jvmArgs, workDir, lease);
+            } catch (IOException | RuntimeException e) {
+                lease.close();
+                throw e;
+            }
+        }
+
+        long start = System.nanoTime();
+        int exit;
+        try {
+            exit = worker.run(mainClass, args, log);
+        } catch (IOException e) {
+            worker.destroy();
+            throw e;
+        }
+        ToolGovernor.record(worker.lease, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), ToolGovernor.getPeakRss(worker.process));
+        if (worker.isAlive())
+            release(key, worker);
+        else
+            worker.destroy();
+        return exit;
+    }
+
+    private static synchronized Worker acquire(String key) {
+        Deque<Worker> workers = IDLE.get(key);
+        while (workers != null && !workers.isEmpty()) {
+            Worker worker = workers.pollFirst();
+            if (worker.isAlive())
+                return worker;
+        }
+        return null;
+    }
+
+    private static synchronized void release(String key, Worker worker) {
+        worker.lastUsed = System.nanoTime();
+        IDLE.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(worker);
+        if (reaper == null) {
+            reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ForgeGradle tool worker reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reaper.scheduleWithFixedDelay(ToolWorkerPool::stopIdle, 10, 10, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(ToolWorkerPool::stopAll, "ForgeGradle tool worker shutdown"));
+        }
+    }
+
+    private static synchronized void stopIdle() {
+        long now = System.nanoTime();
+        for (Deque<Worker> workers : IDLE.values()) {
+            for (Iterator<Worker> itr = workers.iterator(); itr.hasNext();) {
+                Worker worker = itr.next();
+                if (!worker.isAlive() || now - worker.lastUsed > TIMEOUT) {
+                    worker.destroy();
+                    itr.remove();
+                }
+            }
+        }
+        IDLE.values().removeIf(Deque::isEmpty);
+    }
+
+    /**
+     * Stops every idle worker to free memory for another tool.
+     *
+     * @return If any were stopped.
+     */
+    static synchronized boolean stopIdleWorkers() {
+        boolean ret = IDLE.values().stream().anyMatch(workers -> !workers.isEmpty());
+        stopAll();
+        return ret;
+    }
+
+    private static synchronized void stopAll() {
+        IDLE.values().forEach(workers -> workers.forEach(Worker::destroy));
+        IDLE.clear();
+    }
+
+    private static File getWorkerClasspath() throws IOException {
+        try {
+            return new File(ToolWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static class Worker {
+        private final Process process;
+        private final DataOutputStream in;
+        private final DataInputStream out;
+        private final ToolGovernor.Lease lease;
+        private long lastUsed;
+
+        private Worker(List<File> classpath, List<String> jvmArgs, File workDir, ToolGovernor.Lease lease) throws IOException {
+            List<String> cmd = new ArrayList<>();
+            cmd.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+            cmd.addAll(jvmArgs);
+            cmd.add("-cp");
+            cmd.add(getWorkerClasspath().getAbsolutePath());
+            cmd.add(ToolWorker.class.getName());
+            classpath.forEach(f -> cmd.add(f.getAbsolutePath()));
+
+            workDir.mkdirs();
+            this.process = new ProcessBuilder(cmd).directory(workDir).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            this.in = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.out = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            this.lease = lease;
+        }
+
+        private int run(String mainClass, List<String> args, OutputStream log) throws IOException {
+            writeString(mainClass);
+            in.writeInt(args.size());
+            for (String arg : args)
+                writeString(arg);
+            in.flush();
+
+            byte[] buf = new byte[8192];
+            try {
+                while (true) {
+                    int type = out.readUnsignedByte();
+                    if (type == ToolWorker.FRAME_EXIT) {
+                        log.flush();
+                        System.err.flush();
+                        return out.readInt();
+                    }
+                    if (type != ToolWorker.FRAME_OUTPUT && type != ToolWorker.FRAME_ERROR)
+                        throw new IOException("Invalid frame from tool worker: " + type);
+                    OutputStream target = type == ToolWorker.FRAME_OUTPUT ? log : System.err;
+                    int len = out.readInt();
+                    while (len > 0) {
+                        int read = out.read(buf, 0, Math.min(buf.length, len));
+                        if (read < 0)
+                            throw new EOFException();
+                        target.write(buf, 0, read);
+                        len -= read;
+                    }
+                }
+            } catch (EOFException e) {
+                // The tool ended the JVM, same as it would have in a fork
+                try {
+                    log.flush();
+                    return process.waitFor();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ex);
+                }
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            in.writeInt(data.length);
+            in.write(data);
+        }
+
+        private boolean isAlive() {
+            return process.isAlive();
+        }
+
+        private void destroy() {
+            process.destroy();
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.minecraftforge.gradle.common.util.func.IOSupplier;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing spans for the expensive parts of setting up a workspace: each MCP step, each stage MinecraftUserRepo
+ * generates, and each download. Spans nest per thread, and record wall and CPU time, the peak memory of tool workers
+ * run inside them, and the {@link HashStore} hits and misses they saw. Forks go through Gradle, which doesn't expose
+ * their process, so their memory isn't known.
+ * <p>
+ * Enabled with {@code -Dnet.minecraftforge.gradle.trace=true}, which writes a Chrome trace to
+ * {@code build/reports/forgegradle/trace.json} in the root project when the build finishes, which can be opened in
+ * {@code chrome://tracing} or Perfetto, and logs a table of where the time went. Otherwise spans cost nothing.
+ */
+public final class Trace {
+    private static final boolean ENABLED = Boolean.getBoolean("net.minecraftforge.gradle.trace");
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final Span DISABLED = new Span();
+    private static final long ORIGIN = System.nanoTime();
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final List<Span> FINISHED = new ArrayList<>();
+    private static final Set<Gradle> REGISTERED = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private Trace() {}
+
+    /**
+     * Starts a span on this thread, inside whichever span the thread is already in. It ends when closed.
+     */
+    public static Span begin(String category, String name) {
+        return begin(CURRENT.get(), category, name);
+    }
+
+    /**
+     * Starts a span on this thread as part of a span from another thread, for work it hands out to other threads.
+     */
+    public static Span begin(Span parent, String category, String name) {
+        if (!ENABLED)
+            return DISABLED;
+        Span span = new Span(category, name, parent, CURRENT.get());
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Runs the body inside the span, closing it when the body returns.
+     */
+    public static <T> T time(Span span, IOSupplier<T> body) throws IOException {
+        try {
+            return body.get();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Counts a cache decision against the span this thread is in.
+     */
+    static void recordCache(boolean hit) {
+        Span span = CURRENT.get();
+        if (span == null)
+            return;
+        synchronized (span) {
+            if (hit)
+                span.cacheHits++;
+            else
+                span.cacheMisses++;
+        }
+    }
+
+    /**
+     * Records the peak resident memory, in bytes, of a tool worker run inside the span this thread is in.
+     */
+    static void recordChildPeakRss(long bytes) {
+        Span span = CURRENT.get();
+        if (span != null)
+            span.addChildPeakRss(bytes);
+    }
+
+    /**
+     * Writes the trace when the build finishes, once per build no matter how many projects ask.
+     */
+    public static void register(Gradle gradle, Logger logger) {
+        if (!ENABLED)
+            return;
+        synchronized (REGISTERED) {
+            if (!REGISTERED.add(gradle))
+                return;
+        }
+        gradle.buildFinished(result -> {
+            List<Span> spans;
+            synchronized (FINISHED) {
+                spans = new ArrayList<>(FINISHED);
+                FINISHED.clear();
+            }
+            if (spans.isEmpty())
+                return;
+
+            File output = new File(gradle.getRootProject().getProjectDir(), "build/reports/forgegradle/trace.json");
+            try {
+                output.getParentFile().mkdirs();
+                Files.write(output.toPath(), GSON.toJson(toChromeTrace(spans)).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.warn("Failed to write trace " + output, e);
+            }
+            summarize(spans, output, logger);
+        });
+    }
+
+    private static Map<String, Object> toChromeTrace(List<Span> spans) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (Span span : spans) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("name", span.name);
+            event.put("cat", span.category);
+            event.put("ph", "X");
+            event.put("ts", TimeUnit.NANOSECONDS.toMicros(span.start - ORIGIN));
+            event.put("dur", TimeUnit.NANOSECONDS.toMicros(span.wallNs));
+            event.put("pid", 1);
+            event.put("tid", span.thread);
+
+            Map<String, Object> args = new LinkedHashMap<>(span.args);
+            if (span.cpuNs >= 0)
+                args.put("cpuMs", TimeUnit.NANOSECONDS.toMillis(span.cpuNs));
+            if (span.childPeakRss >= 0)
+                args.put("childPeakRss", span.childPeakRss);
+            if (span.cacheHits + span.cacheMisses > 0) {
+                args.put("cacheHits", span.cacheHits);
+                args.put("cacheMisses", span.cacheMisses);
+            }
+            event.put("args", args);
+            events.add(event);
+        }
+
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("traceEvents", events);
+        ret.put("displayTimeUnit", "ms");
+        return ret;
+    }
+
+    private static void summarize(List<Span> spans, File output, Logger logger) {
+        // Spans of the same stage are summed, by the time spent in them and not in the spans inside them.
+        Map<String, Total> totals = new LinkedHashMap<>();
+        for (Span span : spans) {
+            Total total = totals.computeIfAbsent(span.category + ' ' + span.name, Total::new);
+            total.count++;
+            // Spans in other threads can add up to more than their parent
+            total.selfNs += Math.max(span.wallNs - span.child.wallNs, 0);
+            total.cpuNs += Math.max(span.cpuNs - span.child.cpuNs, 0);
+            total.childPeakRss = Math.max(total.childPeakRss, span.childPeakRss);
+            total.cacheHits += span.cacheHits;
+            total.cacheMisses += span.cacheMisses;
+        }
+        List<Total> sorted = new ArrayList<>(totals.values());
+        sorted.sort(Comparator.comparingLong((Total t) -> t.selfNs).reversed());
+
+        logger.lifecycle("ForgeGradle trace: " + spans.size() + " spans. Trace: " + output);
+        logger.lifecycle(String.format("  %-40s %5s %9s %9s %9s %7s", "Span", "Count", "Self", "CPU", "Wrkr RSS", "Hit/Miss"));
+        for (Total total : sorted.subList(0, Math.min(sorted.size(), 25))) {
+            logger.lifecycle(String.format("  %-40s %5d %8dms %8dms %9s %3d/%-3d", abbreviate(total.name, 40), total.count,
+                    TimeUnit.NANOSECONDS.toMillis(total.selfNs), TimeUnit.NANOSECONDS.toMillis(total.cpuNs),
+                    total.childPeakRss < 0 ? "-" : CacheCleaner.formatSize(total.childPeakRss), total.cacheHits, total.cacheMisses));
+        }
+    }
+
+    private static String abbreviate(String value, int length) {
+        return value.length() <= length ? value : "..." + value.substring(value.length() - length + 3);
+    }
+
+    private static long getCpuTime() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    public static class Span implements AutoCloseable {
+        private final String category;
+        private final String name;
+        private final Span parent;
+        private final Span previous;
+        private final long thread;
+        private final long start;
+        private final long cpuStart;
+        private final Map<String, Object> args = new LinkedHashMap<>();
+        private final Usage child = new Usage(); // Sum of the spans inside this one
+        private long wallNs;
+        private long cpuNs = -1;
+        private long childPeakRss = -1;
+        private int cacheHits;
+        private int cacheMisses;
+        private boolean closed;
+
+        private Span(String category, String name, Span parent, Span previous) {
+            this.category = category;
+            this.name = name;
+            this.parent = parent;
+            this.previous = previous;
+            this.thread = Thread.currentThread().getId();
+            this.cpuStart = getCpuTime();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * The span handed out while tracing is disabled, which records nothing.
+         */
+        private Span() {
+            this.category = this.name = null;
+            this.parent = this.previous = null;
+            this.thread = this.start = this.cpuStart = 0;
+            this.closed = true;
+        }
+
+        /**
+         * Adds something to show with the span in the trace.
+         */
+        public Span arg(String key, Object value) {
+            if (this == DISABLED)
+                return this;
+            args.put(key, value == null ? null : value instanceof Number || value instanceof Boolean ? value : value.toString());
+            return this;
+        }
+
+        /**
+         * Ends the span. Must be closed on the thread that began it.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+                wallNs = System.nanoTime() - start;
+                long cpu = getCpuTime();
+                if (cpuStart >= 0 && cpu >= 0)
+                    cpuNs = cpu - cpuStart;
+            }
+
+            if (parent != null) {
+                synchronized (parent) {
+                    parent.child.wallNs += wallNs;
+                    // CPU is counted per thread, so only spans on the same thread are part of the parent's
+                    if (parent.thread == thread)
+                        parent.child.cpuNs += Math.max(cpuNs, 0);
+                }
+                parent.addChildPeakRss(childPeakRss);
+            }
+            if (CURRENT.get() == this) {
+                if (previous == null)
+                    CURRENT.remove();
+                else
+                    CURRENT.set(previous);
+            }
+            synchronized (FINISHED) {
+                FINISHED.add(this);
+            }
+        }
+
+        private synchronized void addChildPeakRss(long bytes) {
+            if (bytes > childPeakRss)
+                childPeakRss = bytes;
+        }
+    }
+
+    private static class Usage {
+        private long wallNs;
+        private long cpuNs;
+    }
+
+    private static class Total {
+        private final String name;
+        private int count;
+        private long selfNs;
+        private long cpuNs;
+        private long childPeakRss = -1;
+        private int cacheHits;
+        private int cacheMisses;
+
+        private Total(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -62,11 +62,15 @@ import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
@@ -135,6 +139,10 @@ public class Utils {
         }
     }
 
+    /**
+     * Streams have no central directory to copy compressed entries from, so this inflates and deflates every entry.
+     * Prefer {@link #copyZipEntries(ZipWriter, ZipReader, Predicate)}.
+     */
     public static Set<String> copyZipEntries(ZipOutputStream zout, ZipInputStream zin, Predicate<String> filter) throws IOException {
         Set<String> added = new HashSet<>();
         ZipEntry entry;
@@ -149,6 +157,18 @@ public class Utils {
         return added;
     }
 
+    public static Set<String> copyZipEntries(ZipWriter zout, ZipReader zin, Predicate<String> filter) throws IOException {
+        Set<String> added = new HashSet<>();
+        for (ZipReader.Entry entry : zin.getEntries()) {
+            if (!filter.test(entry.getName())) continue;
+            ZipEntry _new = new ZipEntry(entry.getName());
+            _new.setTime(0); //SHOULD be the same time as the main entry, but NOOOO _new.setTime(entry.getTime()) throws DateTimeException, so you get 0, screw you!
+            zout.copyEntry(entry, _new);
+            added.add(entry.getName());
+        }
+        return added;
+    }
+
     public static byte[] base64DecodeStringList(List<String> strings) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         for (String string : strings) {
@@ -169,6 +189,39 @@ public class Utils {
         return file;
     }
 
+    /**
+     * Writes the data to a temporary file next to the target, and then renames it over the target.
+     * Readers will either see the old file or the complete new one, never a partially written file.
+     */
+    public static void writeAtomically(File target, byte[] data) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        Path tmp = Files.createTempFile(parent.toPath(), target.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining())
+                    channel.write(buf);
+                channel.force(true);
+            }
+            moveAtomically(tmp.toFile(), target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Renames the source over the target, atomically if the file system supports it.
+     */
+    public static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     public static Path getCacheBase(Project project) {
         File gradleUserHomeDir = project.getGradle().getGradleUserHomeDir();
         return Paths.get(gradleUserHomeDir.getPath(), "caches", "forge_gradle");
@@ -253,11 +306,11 @@ public class Utils {
         updateHash(target, HashFunction.values());
     }
     public static void updateHash(File target, HashFunction... functions) throws IOException {
-        for (HashFunction function : functions) {
-            File cache = new File(target.getAbsolutePath() + "." + function.getExtension());
-            if (target.exists()) {
-                String hash = function.hash(target);
-                Files.write(cache.toPath(), hash.getBytes());
+        String[] hashes = target.exists() ? HashFunction.hashAll(target, functions) : null;
+        for (int x = 0; x < functions.length; x++) {
+            File cache = new File(target.getAbsolutePath() + "." + functions[x].getExtension());
+            if (hashes != null) {
+                Files.write(cache.toPath(), hashes[x].getBytes());
             } else if (cache.exists()) {
                 cache.delete();
             }
@@ -355,44 +408,48 @@ public class Utils {
         if (efile.exists())
             etag = new String(Files.readAllBytes(efile.toPath()), StandardCharsets.UTF_8);
 
-        final String initialEtagValue = etag;
-        HttpURLConnection con = connectHttpWithRedirects(url, (setupCon) -> {
-            if (output.exists())
-                setupCon.setIfModifiedSince(output.lastModified());
-            if (!initialEtagValue.isEmpty())
-                setupCon.setRequestProperty("If-None-Match", initialEtagValue);
-        });
+        try (Trace.Span span = Trace.begin("download", url.toString())) {
+            final String initialEtagValue = etag;
+            HttpURLConnection con = connectHttpWithRedirects(url, (setupCon) -> {
+                if (output.exists())
+                    setupCon.setIfModifiedSince(output.lastModified());
+                if (!initialEtagValue.isEmpty())
+                    setupCon.setRequestProperty("If-None-Match", initialEtagValue);
+            });
 
-        if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
-            output.setLastModified(new Date().getTime());
-            return true;
-        } else if (con.getResponseCode() == HttpURLConnection.HTTP_OK) {
-            try {
-                InputStream stream = con.getInputStream();
-                int len = con.getContentLength();
-                int read = -1;
-                output.getParentFile().mkdirs();
-                try (FileOutputStream out = new FileOutputStream(output)) {
-                    read = IOUtils.copy(stream, out);
-                }
+            if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                output.setLastModified(new Date().getTime());
+                span.arg("notModified", true);
+                return true;
+            } else if (con.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                try {
+                    InputStream stream = con.getInputStream();
+                    int len = con.getContentLength();
+                    int read = -1;
+                    output.getParentFile().mkdirs();
+                    try (FileOutputStream out = new FileOutputStream(output)) {
+                        read = IOUtils.copy(stream, out);
+                    }
+                    span.arg("bytes", read);
 
-                if (read != len) {
+                    if (read != len) {
+                        output.delete();
+                        throw new IOException("Failed to read all of data from " + url + " got " + read + " expected " + len);
+                    }
+
+                    etag = con.getHeaderField("ETag");
+                    if (etag == null || etag.isEmpty())
+                        Files.write(efile.toPath(), new byte[0]);
+                    else
+                        Files.write(efile.toPath(), etag.getBytes(StandardCharsets.UTF_8));
+                    return true;
+                } catch (IOException e) {
                     output.delete();
-                    throw new IOException("Failed to read all of data from " + url + " got " + read + " expected " + len);
+                    throw e;
                 }
-
-                etag = con.getHeaderField("ETag");
-                if (etag == null || etag.isEmpty())
-                    Files.write(efile.toPath(), new byte[0]);
-                else
-                    Files.write(efile.toPath(), etag.getBytes(StandardCharsets.UTF_8));
-                return true;
-            } catch (IOException e) {
-                output.delete();
-                throw e;
             }
+            return false;
         }
-        return false;
     }
 
     public static boolean downloadFile(URL url, File output, boolean deleteOn404) {
@@ -427,7 +484,7 @@ public class Utils {
     }
 
     private static boolean downloadFile(URLConnection con, File output) throws IOException {
-        try {
+        try (Trace.Span span = Trace.begin("download", con.getURL().toString())) {
             InputStream stream = con.getInputStream();
             int len = con.getContentLength();
             int read = -1;
@@ -437,6 +494,7 @@ public class Utils {
             try (FileOutputStream out = new FileOutputStream(output)) {
                 read = IOUtils.copy(stream, out);
             }
+            span.arg("bytes", read);
 
             if (read != len) {
                 output.delete();
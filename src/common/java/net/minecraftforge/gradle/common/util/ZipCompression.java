@@ -0,0 +1,131 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import org.gradle.api.invocation.Gradle;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Compression used for the jars we write, by what they are used for. Intermediate jars are only read back by the next
+ * step of the pipeline, so by default they are stored, trading disk space for not deflating and inflating them again.
+ * Output jars are handed to Gradle and IDEs and use the default deflate level.
+ * <p>
+ * Levels are {@code store} (or {@code 0}), {@code default}, or a deflate level from 1 to 9. They are set with
+ * {@code net.minecraftforge.gradle.compression.intermediate} and {@code net.minecraftforge.gradle.compression.output},
+ * or from the {@code minecraft} extension, which takes priority until the end of the build. Projects that set it from
+ * the extension must agree on the level.
+ */
+public enum ZipCompression {
+    INTERMEDIATE("store", "intermediateCompression"),
+    OUTPUT("default", "outputCompression");
+
+    private static final Set<Gradle> REGISTERED = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final String defaultLevel;
+    private final String extensionProperty;
+    private volatile Integer systemLevel;
+    private volatile Integer configured;
+    private String configuredBy;
+
+    ZipCompression(String defaultLevel, String extensionProperty) {
+        this.defaultLevel = defaultLevel;
+        this.extensionProperty = extensionProperty;
+    }
+
+    /**
+     * Drops the levels set from the extension once the build is done, so the next build in the daemon starts from
+     * the system properties again.
+     */
+    public static void register(Gradle gradle) {
+        synchronized (REGISTERED) {
+            if (!REGISTERED.add(gradle))
+                return;
+        }
+        gradle.buildFinished(result -> {
+            for (ZipCompression compression : values())
+                compression.reset();
+        });
+    }
+
+    /**
+     * Returns the deflate level to use, where {@link Deflater#NO_COMPRESSION} means entries are stored.
+     */
+    public int getLevel() {
+        Integer ret = configured;
+        if (ret != null)
+            return ret;
+        ret = systemLevel;
+        if (ret == null) {
+            String key = "net.minecraftforge.gradle.compression." + name().toLowerCase(Locale.ENGLISH);
+            String value = System.getProperty(key);
+            ret = value == null ? parse(defaultLevel, key) : parse(value, "-D" + key);
+            systemLevel = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Overrides the level until the end of the build. A null level leaves it as it is.
+     *
+     * @param project Path of the project setting it, for the error if another project set a different level.
+     */
+    public synchronized void configure(String project, String level) {
+        if (level == null)
+            return;
+        int parsed = parse(level, "minecraft." + extensionProperty + " in " + project);
+        if (configured != null && configured != parsed)
+            throw new IllegalArgumentException("Conflicting minecraft." + extensionProperty + ": '" + level + "' in " + project
+                + " but a different level in " + configuredBy + ". Set it to the same value in every project, or only in one");
+        if (configured == null)
+            configuredBy = project;
+        configured = parsed;
+    }
+
+    private synchronized void reset() {
+        configured = null;
+        configuredBy = null;
+    }
+
+    private static int parse(String value, String source) {
+        switch (value.trim().toLowerCase(Locale.ENGLISH)) {
+            case "store":
+            case "stored":
+            case "none":
+                return Deflater.NO_COMPRESSION;
+            case "default":
+                return Deflater.DEFAULT_COMPRESSION;
+            default:
+                try {
+                    int level = Integer.parseInt(value.trim());
+                    if (level >= 0 && level <= 9)
+                        return level;
+                } catch (NumberFormatException e) {
+                    // Fall through
+                }
+                throw new IllegalArgumentException("Invalid compression level '" + value + "' for " + source + ", must be store, default or 0-9");
+        }
+    }
+}
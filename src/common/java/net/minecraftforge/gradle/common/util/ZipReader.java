@@ -0,0 +1,446 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal random access zip reader, which unlike {@link java.util.zip.ZipFile} can hand out an entry's data still
+ * compressed, so {@link ZipWriter#copyEntry(Entry, ZipEntry)} can move it to another archive without inflating and
+ * deflating it again. Only archives opened as raw are copied that way, which should be limited to jars this build
+ * produced itself; entries of anything else are recompressed like {@link java.util.zip.ZipOutputStream} would.
+ * Entries are listed in central directory order. Encrypted archives are not supported.
+ */
+public class ZipReader implements Closeable {
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int ZIP64_END_HEADER = 0x06064b50;
+    static final int ZIP64_END_LOCATOR = 0x07064b50;
+    static final int ZIP64_EXTRA = 0x0001;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+    static final int ZIP64_END_HEADER_SIZE = 56;
+    static final int ZIP64_END_LOCATOR_SIZE = 20;
+    static final long MAX_U32 = 0xFFFFFFFFL;
+
+    private final String path;
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final long length;
+    private final boolean raw;
+    private final List<Entry> entries;
+
+    public ZipReader(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param raw Whether {@link ZipWriter} may copy entries without recompressing them. Only for archives this build
+     *            wrote itself, never for downloaded or user supplied jars.
+     */
+    public ZipReader(File file, boolean raw) throws IOException {
+        this.path = file.getAbsolutePath();
+        this.raw = raw;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.data = null;
+        try {
+            this.length = channel.size();
+            this.entries = readEntries();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public ZipReader(byte[] data, boolean raw) throws IOException {
+        this.path = "<memory>";
+        this.raw = raw;
+        this.channel = null;
+        this.data = ByteBuffer.wrap(data);
+        this.length = data.length;
+        this.entries = readEntries();
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * Returns the uncompressed data for the given entry.
+     */
+    public InputStream getInputStream(Entry entry) throws IOException {
+        InputStream raw = getRawInputStream(entry);
+        switch (entry.method) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterStream(raw, entry.size);
+            default:
+                raw.close();
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name + " in " + path);
+        }
+    }
+
+    /**
+     * Returns the data for the given entry exactly as it is stored in the archive.
+     */
+    InputStream getRawInputStream(Entry entry) throws IOException {
+        if (entry.zip != this)
+            throw new IllegalArgumentException("Entry " + entry.name + " does not belong to " + path);
+
+        ByteBuffer header = read(entry.offset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER)
+            throw new ZipException("Invalid local header for " + entry.name + " in " + path);
+
+        long start = entry.offset + LOCAL_HEADER_SIZE + u16(header, 26) + u16(header, 28);
+        if (start + entry.compressedSize > length)
+            throw new ZipException("Truncated entry " + entry.name + " in " + path);
+        return new RegionInputStream(start, entry.compressedSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    private List<Entry> readEntries() throws IOException {
+        int tail = (int)Math.min(length, END_HEADER_SIZE + 0xFFFF);
+        ByteBuffer buf = read(length - tail, tail);
+        int end = -1;
+        for (int i = tail - END_HEADER_SIZE; i >= 0; i--) {
+            if (buf.getInt(i) == END_HEADER && i + END_HEADER_SIZE + u16(buf, i + 20) <= tail) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1)
+            throw new ZipException("Missing end of central directory in " + path);
+
+        long count = u16(buf, end + 10);
+        long size = u32(buf, end + 12);
+        long offset = u32(buf, end + 16);
+        long limit = length - tail + end;
+        if (limit >= ZIP64_END_LOCATOR_SIZE) {
+            ByteBuffer loc = read(limit - ZIP64_END_LOCATOR_SIZE, ZIP64_END_LOCATOR_SIZE);
+            if (loc.getInt(0) == ZIP64_END_LOCATOR) {
+                limit = loc.getLong(8);
+                ByteBuffer end64 = read(limit, ZIP64_END_HEADER_SIZE);
+                if (end64.getInt(0) != ZIP64_END_HEADER)
+                    throw new ZipException("Invalid Zip64 end of central directory in " + path);
+                count = end64.getLong(32);
+                size = end64.getLong(40);
+                offset = end64.getLong(48);
+            }
+        }
+        if (offset < 0 || size < 0 || offset + size > limit)
+            throw new ZipException("Invalid central directory in " + path);
+        if (size > Integer.MAX_VALUE || count > Integer.MAX_VALUE)
+            throw new ZipException("Central directory too large in " + path);
+
+        ByteBuffer cen = read(offset, (int)size);
+        List<Entry> ret = new ArrayList<>((int)Math.min(count, 0xFFFF));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > size || cen.getInt(pos) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory entry " + i + " in " + path);
+
+            int flags = u16(cen, pos + 8);
+            int nameLen = u16(cen, pos + 28);
+            int extraLen = u16(cen, pos + 30);
+            int commentLen = u16(cen, pos + 32);
+            if (pos + CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen > size)
+                throw new ZipException("Invalid central directory entry " + i + " in " + path);
+            byte[] name = new byte[nameLen];
+            cen.position(pos + CENTRAL_HEADER_SIZE);
+            cen.get(name);
+
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            long compressedSize = u32(cen, pos + 20);
+            long entrySize = u32(cen, pos + 24);
+            long entryOffset = u32(cen, pos + 42);
+            if (compressedSize == MAX_U32 || entrySize == MAX_U32 || entryOffset == MAX_U32) {
+                // Zip64 extra field, holding only the values that did not fit, in this order.
+                int extra = findExtra(cen, pos + CENTRAL_HEADER_SIZE + nameLen, extraLen, ZIP64_EXTRA);
+                if (extra == -1)
+                    throw new ZipException("Missing Zip64 extra field for " + entryName + " in " + path);
+                int extraEnd = extra + u16(cen, extra - 2);
+                if (entrySize == MAX_U32 && extra + 8 <= extraEnd) {
+                    entrySize = cen.getLong(extra);
+                    extra += 8;
+                }
+                if (compressedSize == MAX_U32 && extra + 8 <= extraEnd) {
+                    compressedSize = cen.getLong(extra);
+                    extra += 8;
+                }
+                if (entryOffset == MAX_U32 && extra + 8 <= extraEnd)
+                    entryOffset = cen.getLong(extra);
+                if (compressedSize < 0 || entrySize < 0 || entryOffset < 0)
+                    throw new ZipException("Invalid Zip64 extra field for " + entryName + " in " + path);
+            }
+
+            Entry entry = new Entry(this, entryName, flags, u16(cen, pos + 10), cen.getInt(pos + 12),
+                u32(cen, pos + 16), compressedSize, entrySize, entryOffset);
+            if ((flags & 1) != 0)
+                throw new ZipException("Encrypted entries are not supported: " + entry.name + " in " + path);
+
+            ret.add(entry);
+            pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Returns the position of the data of the given extra field, or -1 if it is not there.
+     */
+    private static int findExtra(ByteBuffer buf, int pos, int len, int id) {
+        int end = pos + len;
+        while (pos + 4 <= end) {
+            int size = u16(buf, pos + 2);
+            if (pos + 4 + size > end)
+                break;
+            if (u16(buf, pos) == id)
+                return pos + 4;
+            pos += 4 + size;
+        }
+        return -1;
+    }
+
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer ret = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        read(pos, ret);
+        ret.flip();
+        return ret;
+    }
+
+    private void read(long pos, ByteBuffer buf) throws IOException {
+        if (pos < 0 || pos + buf.remaining() > length)
+            throw new EOFException("Unexpected end of " + path);
+
+        if (channel == null) {
+            ByteBuffer src = data.duplicate();
+            src.position((int)pos).limit((int)pos + buf.remaining());
+            buf.put(src);
+            return;
+        }
+
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read < 0)
+                throw new EOFException("Unexpected end of " + path);
+            pos += read;
+        }
+    }
+
+    private static int u16(ByteBuffer buf, int pos) {
+        return buf.getShort(pos) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buf, int pos) {
+        return buf.getInt(pos) & MAX_U32;
+    }
+
+    public static class Entry {
+        final ZipReader zip;
+        final String name;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long offset;
+
+        private Entry(ZipReader zip, String name, int flags, int method, int dosTime, long crc, long compressedSize, long size, long offset) {
+            this.zip = zip;
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private class RegionInputStream extends InputStream {
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+        private long pos;
+        private long remaining;
+
+        private RegionInputStream(long pos, long length) {
+            this.pos = pos;
+            this.remaining = length;
+            buf.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill())
+                return -1;
+            return buf.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            long buffered = Math.min(n, buf.remaining());
+            buf.position(buf.position() + (int)buffered);
+            long skipped = Math.min(n - buffered, remaining);
+            pos += skipped;
+            remaining -= skipped;
+            return buffered + skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int)Math.min(Integer.MAX_VALUE, buf.remaining() + remaining);
+        }
+
+        private boolean fill() throws IOException {
+            if (buf.hasRemaining())
+                return true;
+            if (remaining == 0)
+                return false;
+            buf.clear();
+            buf.limit((int)Math.min(buf.capacity(), remaining));
+            ZipReader.this.read(pos, buf);
+            buf.flip();
+            pos += buf.limit();
+            remaining -= buf.limit();
+            return true;
+        }
+    }
+
+    /**
+     * Same as {@link java.util.zip.ZipFile}'s inflater stream: nowrap inflaters may need one extra byte past the end of
+     * the data to finish, and the size is known up front.
+     */
+    private static class EntryInflaterStream extends InflaterInputStream {
+        private boolean eof = false;
+        private boolean closed = false;
+        private long remaining;
+
+        private EntryInflaterStream(InputStream in, long size) {
+            super(in, new Inflater(true), (int)Math.max(64, Math.min(8192, size)));
+            this.remaining = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof)
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed)
+                return 0;
+            return (int)Math.max(0, Math.min(Integer.MAX_VALUE, remaining));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+    }
+}
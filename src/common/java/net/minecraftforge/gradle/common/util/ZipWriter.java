@@ -0,0 +1,508 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip writer, used like {@link java.util.zip.ZipOutputStream} for new entries, which can also copy entries
+ * from a {@link ZipReader} opened as raw without decompressing them. Copied entries keep their compressed data, CRC and
+ * sizes, and take their name and time from the target entry so renames and {@link Utils#getStableEntry(String)} still
+ * apply. Entries from any other reader are inflated and written like new ones.
+ * <p>
+ * New entries are buffered and deflated on a shared pool while the caller moves on to the next one, then written in
+ * the order they were added. Each entry is deflated on its own, so the output is identical whatever the thread count.
+ * The level comes from the {@link ZipCompression} the writer is created for, and a level of 0 stores new entries
+ * rather than deflating them.
+ * Thread count and in flight limit are set with {@code net.minecraftforge.gradle.zip.threads} (default: all cores)
+ * and {@code net.minecraftforge.gradle.zip.buffer} (megabytes, default 64).
+ * <p>
+ * Headers are laid out as {@link java.util.zip.ZipOutputStream} would, except that sizes are always known up front so
+ * no data descriptors are written: UTF-8 names, times before 1980 stored in an extended timestamp field, and no other
+ * extra fields or comments. Zip64 records are only written where the sizes, offsets or entry count need them.
+ */
+public class ZipWriter extends OutputStream {
+    private static final int THREADS = Integer.getInteger("net.minecraftforge.gradle.zip.threads", Runtime.getRuntime().availableProcessors());
+    private static final long MAX_IN_FLIGHT = Long.getLong("net.minecraftforge.gradle.zip.buffer", 64) * 1024 * 1024;
+    private static final ForkJoinPool POOL = THREADS > 1 ? new ForkJoinPool(THREADS) : null;
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int DOSTIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+    private static final int EXTID_EXTT = 0x5455;
+    private static final int VERSION_ZIP64 = 45;
+
+    private final OutputStream out;
+    private final byte[] scratch = new byte[8192];
+    private final List<Written> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final int maxPending = Math.max(1, THREADS) * 4;
+    private long inFlight = 0;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private long written = 0;
+    private Written current;
+    private EntryBuffer buffer;
+    private boolean finished = false;
+
+    public ZipWriter(OutputStream out) {
+        this(out, ZipCompression.OUTPUT);
+    }
+
+    public ZipWriter(OutputStream out, ZipCompression compression) {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.level = compression.getLevel();
+    }
+
+    public void setLevel(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("invalid compression level");
+        this.level = level;
+    }
+
+    /**
+     * Starts a new entry, deflated or stored depending on the level. Use the {@link OutputStream} methods to write its
+     * contents.
+     */
+    public void putNextEntry(ZipEntry entry) throws IOException {
+        closeEntry();
+        current = begin(entry, level == Deflater.NO_COMPRESSION ? ZipEntry.STORED : ZipEntry.DEFLATED, FLAG_UTF8);
+        buffer = new EntryBuffer();
+    }
+
+    /**
+     * Copies an entry from another archive, keeping its name and time. The data is only recompressed if the archive
+     * was not opened as raw.
+     */
+    public void copyEntry(ZipReader.Entry entry) throws IOException {
+        copyEntry(entry, entry.name, null);
+    }
+
+    /**
+     * Copies an entry from another archive, using the name and time of the given entry. The data is only recompressed
+     * if the archive was not opened as raw.
+     */
+    public void copyEntry(ZipReader.Entry entry, ZipEntry target) throws IOException {
+        copyEntry(entry, target.getName(), target);
+    }
+
+    private void copyEntry(ZipReader.Entry entry, String name, ZipEntry target) throws IOException {
+        closeEntry();
+        Written e;
+        if (!entry.zip.isRaw()) {
+            int method = level == Deflater.NO_COMPRESSION ? ZipEntry.STORED : ZipEntry.DEFLATED;
+            current = target == null ? begin(name, entry.dosTime, null, method, FLAG_UTF8) : begin(target, method, FLAG_UTF8);
+            buffer = new EntryBuffer();
+            try (InputStream in = entry.zip.getInputStream(entry)) {
+                int read;
+                while ((read = in.read(scratch)) != -1)
+                    buffer.write(scratch, 0, read);
+            }
+            closeEntry();
+            return;
+        }
+
+        if (target == null) {
+            e = begin(name, entry.dosTime, null, entry.method, FLAG_UTF8 | (entry.flags & 0x06));
+        } else {
+            e = begin(target, entry.method, FLAG_UTF8 | (entry.flags & 0x06));
+        }
+        e.crc = entry.crc;
+        e.compressedSize = entry.compressedSize;
+        e.size = entry.size;
+
+        // Too large to hold on to, so write out everything before it and stream it instead.
+        if (entry.compressedSize > Math.min(MAX_IN_FLIGHT, Integer.MAX_VALUE)) {
+            while (!pending.isEmpty())
+                writePending(pending.poll());
+        }
+
+        if (pending.isEmpty()) {
+            writeLocalHeader(e);
+            try (InputStream in = entry.zip.getRawInputStream(entry)) {
+                int read;
+                while ((read = in.read(scratch)) != -1) {
+                    out.write(scratch, 0, read);
+                    written += read;
+                }
+            }
+            entries.add(e);
+        } else {
+            // Still waiting on earlier entries, and the source may be closed by the time they are done.
+            byte[] data = new byte[(int)entry.compressedSize];
+            try (InputStream in = entry.zip.getRawInputStream(entry)) {
+                int off = 0;
+                while (off < data.length) {
+                    int read = in.read(data, off, data.length - off);
+                    if (read == -1)
+                        throw new ZipException("Truncated entry " + entry.name);
+                    off += read;
+                }
+            }
+            enqueue(new Pending(e, CompletableFuture.completedFuture(data), data.length));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (current == null)
+            throw new ZipException("No current zip entry");
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (current == null)
+            throw new ZipException("No current zip entry");
+        buffer.write(b, off, len);
+    }
+
+    public void closeEntry() throws IOException {
+        if (current == null)
+            return;
+
+        Written e = current;
+        EntryBuffer data = buffer;
+        int level = this.level;
+        current = null;
+        buffer = null;
+
+        CompletableFuture<byte[]> result;
+        if (POOL == null) {
+            result = CompletableFuture.completedFuture(deflate(e, data, level));
+        } else {
+            result = CompletableFuture.supplyAsync(() -> deflate(e, data, level), POOL);
+        }
+        enqueue(new Pending(e, result, data.size()));
+    }
+
+    /**
+     * Writes the central directory, leaving the underlying stream open.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        closeEntry();
+        while (!pending.isEmpty())
+            writePending(pending.poll());
+
+        long start = written;
+        for (Written e : entries) {
+            boolean largeSize = e.size >= ZipReader.MAX_U32;
+            boolean largeCompressed = e.compressedSize >= ZipReader.MAX_U32;
+            boolean largeOffset = e.offset >= ZipReader.MAX_U32;
+            int zip64 = (largeSize ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+
+            writeInt(ZipReader.CENTRAL_HEADER);
+            writeShort(e.version);
+            writeShort(e.version);
+            writeShort(e.flags);
+            writeShort(e.method);
+            writeInt(e.dosTime);
+            writeInt(e.crc);
+            writeInt(largeCompressed ? ZipReader.MAX_U32 : e.compressedSize);
+            writeInt(largeSize ? ZipReader.MAX_U32 : e.size);
+            writeShort(e.name.length);
+            writeShort(e.extra.length + (zip64 == 0 ? 0 : 4 + zip64));
+            writeShort(0); // comment
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(0);   // external attributes
+            writeInt(largeOffset ? ZipReader.MAX_U32 : e.offset);
+            writeBytes(e.name);
+            if (zip64 != 0) {
+                writeShort(ZipReader.ZIP64_EXTRA);
+                writeShort(zip64);
+                if (largeSize)
+                    writeLong(e.size);
+                if (largeCompressed)
+                    writeLong(e.compressedSize);
+                if (largeOffset)
+                    writeLong(e.offset);
+            }
+            writeBytes(e.extra);
+        }
+        long size = written - start;
+
+        int count = entries.size();
+        if (count >= 0xFFFF || start >= ZipReader.MAX_U32 || size >= ZipReader.MAX_U32) {
+            long end64 = written;
+            writeInt(ZipReader.ZIP64_END_HEADER);
+            writeLong(ZipReader.ZIP64_END_HEADER_SIZE - 12);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(size);
+            writeLong(start);
+
+            writeInt(ZipReader.ZIP64_END_LOCATOR);
+            writeInt(0);
+            writeLong(end64);
+            writeInt(1);
+        }
+        writeInt(ZipReader.END_HEADER);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, 0xFFFF));
+        writeShort(Math.min(count, 0xFFFF));
+        writeInt(Math.min(size, ZipReader.MAX_U32));
+        writeInt(Math.min(start, ZipReader.MAX_U32));
+        writeShort(0); // comment
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            // Let anything still running finish, rather than leave it writing into buffers nobody will read.
+            for (Pending p : pending)
+                p.data.cancel(false);
+            out.close();
+        }
+    }
+
+    private void enqueue(Pending entry) throws IOException {
+        pending.add(entry);
+        inFlight += entry.size;
+        // Write everything already done, and block on the oldest entry if we are holding too much.
+        while (!pending.isEmpty() && (pending.peek().data.isDone() || inFlight > MAX_IN_FLIGHT || pending.size() > maxPending))
+            writePending(pending.poll());
+    }
+
+    private void writePending(Pending entry) throws IOException {
+        byte[] data;
+        try {
+            data = entry.data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + entry.entry, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IOException("Failed to compress " + entry.entry, cause);
+        }
+        inFlight -= entry.size;
+
+        writeLocalHeader(entry.entry);
+        out.write(data, 0, (int)entry.entry.compressedSize);
+        written += entry.entry.compressedSize;
+        entries.add(entry.entry);
+    }
+
+    private static byte[] deflate(Written e, EntryBuffer data, int level) {
+        CRC32 crc = new CRC32();
+        crc.update(data.getBuffer(), 0, data.size());
+        e.crc = crc.getValue();
+        e.size = data.size();
+
+        if (e.method == ZipEntry.STORED) {
+            e.compressedSize = e.size;
+            return data.getBuffer();
+        }
+
+        Deflater[] cache = DEFLATERS.get();
+        int idx = level == Deflater.DEFAULT_COMPRESSION ? 6 : level;
+        if (cache[idx] == null)
+            cache[idx] = new Deflater(idx, true);
+        Deflater deflater = cache[idx];
+        deflater.reset();
+        deflater.setInput(data.getBuffer(), 0, data.size());
+        deflater.finish();
+
+        byte[] ret = new byte[Math.max(64, data.size() / 2)];
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == ret.length)
+                ret = Arrays.copyOf(ret, ret.length * 2);
+            len += deflater.deflate(ret, len, ret.length - len);
+        }
+
+        e.compressedSize = len;
+        return ret;
+    }
+
+    private Written begin(ZipEntry entry, int method, int flags) throws IOException {
+        long time = entry.getTime();
+        if (time == -1)
+            time = System.currentTimeMillis();
+        int dosTime = javaToDosTime(time);
+        return begin(entry.getName(), dosTime, dosTime == DOSTIME_BEFORE_1980 ? time : null, method, flags);
+    }
+
+    private Written begin(String name, int dosTime, Long mtime, int method, int flags) throws IOException {
+        if (finished)
+            throw new ZipException("Zip already finished");
+        if (!names.add(name))
+            throw new ZipException("duplicate entry: " + name);
+
+        Written e = new Written();
+        e.name = name.getBytes(StandardCharsets.UTF_8);
+        e.flags = flags;
+        e.method = method;
+        e.version = method == ZipEntry.STORED ? 10 : 20;
+        e.dosTime = dosTime;
+        if (mtime == null) {
+            e.extra = new byte[0];
+        } else {
+            long seconds = mtime / 1000;
+            e.extra = new byte[] {
+                (byte)EXTID_EXTT, (byte)(EXTID_EXTT >> 8), 5, 0, 1,
+                (byte)seconds, (byte)(seconds >> 8), (byte)(seconds >> 16), (byte)(seconds >> 24)
+            };
+        }
+        if (e.name.length > 0xFFFF)
+            throw new ZipException("Entry name too long: " + name);
+        return e;
+    }
+
+    private void writeLocalHeader(Written e) throws IOException {
+        e.offset = written;
+        // Sizes are always known here, so the local Zip64 field is only needed when they do not fit.
+        boolean zip64 = e.size >= ZipReader.MAX_U32 || e.compressedSize >= ZipReader.MAX_U32;
+        if (zip64 || e.offset >= ZipReader.MAX_U32)
+            e.version = VERSION_ZIP64;
+        writeInt(ZipReader.LOCAL_HEADER);
+        writeShort(e.version);
+        writeShort(e.flags);
+        writeShort(e.method);
+        writeInt(e.dosTime);
+        writeInt(e.crc);
+        writeInt(zip64 ? ZipReader.MAX_U32 : e.compressedSize);
+        writeInt(zip64 ? ZipReader.MAX_U32 : e.size);
+        writeShort(e.name.length);
+        writeShort(e.extra.length + (zip64 ? 20 : 0));
+        writeBytes(e.name);
+        if (zip64) {
+            writeShort(ZipReader.ZIP64_EXTRA);
+            writeShort(16);
+            writeLong(e.size);
+            writeLong(e.compressedSize);
+        }
+        writeBytes(e.extra);
+    }
+
+    private static int javaToDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980)
+            return DOSTIME_BEFORE_1980;
+        return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16 |
+            date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        out.write((int)(value & 0xFF));
+        out.write((int)((value >>> 8) & 0xFF));
+        out.write((int)((value >>> 16) & 0xFF));
+        out.write((int)((value >>> 24) & 0xFF));
+        written += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & ZipReader.MAX_U32);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(byte[] data) throws IOException {
+        out.write(data);
+        written += data.length;
+    }
+
+    private static class Written {
+        private byte[] name;
+        private byte[] extra;
+        private int flags;
+        private int method;
+        private int version;
+        private int dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long offset;
+
+        @Override
+        public String toString() {
+            return new String(name, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class Pending {
+        private final Written entry;
+        private final CompletableFuture<byte[]> data;
+        private final long size;
+
+        private Pending(Written entry, CompletableFuture<byte[]> data, long size) {
+            this.entry = entry;
+            this.data = data;
+            this.size = size;
+        }
+    }
+
+    /** Exposes the backing array so the deflater can read it without another copy. */
+    private static class EntryBuffer extends ByteArrayOutputStream {
+        private EntryBuffer() {
+            super(8192);
+        }
+
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -30,10 +30,12 @@ import com.google.common.collect.Maps;
 
 import net.minecraftforge.gradle.common.mapping.MappingProviders;
 import net.minecraftforge.gradle.common.util.BaseRepo;
+import net.minecraftforge.gradle.common.util.ContentStore;
 import net.minecraftforge.gradle.common.util.HashFunction;
 import net.minecraftforge.gradle.common.util.HashStore;
 import net.minecraftforge.gradle.common.util.ManifestJson;
 import net.minecraftforge.gradle.common.util.MavenArtifactDownloader;
+import net.minecraftforge.gradle.common.util.MappingCache;
 import net.minecraftforge.gradle.common.util.McpNames;
 import net.minecraftforge.gradle.common.util.MinecraftRepo;
 import net.minecraftforge.gradle.common.util.POMBuilder;
@@ -54,8 +56,16 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Provides the following artifacts:
@@ -92,6 +102,12 @@ public class MCPRepo extends BaseRepo {
     private static final String NAMES_MCP = "^(mcp_config)$";
     private static final String STEP_MERGE = "merge"; //TODO: Design better way to get steps output, for now hardcode
     private static final String STEP_RENAME = "rename";
+    private static final String[] SIDES = {"client", "server", "joined"};
+    private static final ExecutorService SIDE_POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ForgeGradle MCP side");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     //This is the artifact we expose that is a zip containing SRG->Official fields and methods.
     public static final String MAPPING_DEP = "net.minecraft:mappings_{CHANNEL}:{VERSION}@zip";
@@ -102,11 +118,14 @@ public class MCPRepo extends BaseRepo {
     private final Project project;
     private final Repository repo;
     private final Map<String, MCPWrapper> wrappers = Maps.newHashMap();
-    private final Map<String, McpNames> mapCache = new HashMap<>();
+    private final Set<String> expectedSides = ConcurrentHashMap.newKeySet();
+    private final Map<File, CompletableFuture<File>> running = new HashMap<>();
+    private final ContentStore store;
 
     private MCPRepo(Project project, File cache, Logger log) {
         super(cache, log);
         this.project = project;
+        this.store = ContentStore.get(project);
         this.repo = SimpleRepository.of(ArtifactProviderBuilder.begin(ArtifactIdentifier.class)
             .provide(this)
         );
@@ -126,6 +145,13 @@ public class MCPRepo extends BaseRepo {
         return getInstance(project);
     }
 
+    /**
+     * Marks sides the build will ask for, so when one of them has to be set up the others are set up alongside it.
+     */
+    public static void expectSides(Project project, String... sides) {
+        getInstance(project).expectedSides.addAll(Arrays.asList(sides));
+    }
+
     private File cacheMC(String side, String version, String classifier, String ext) {
         if (classifier != null)
             return cache("net", "minecraft", side, version, side + '-' + version + '-' + classifier + '.' + ext);
@@ -300,24 +326,87 @@ public class MCPRepo extends BaseRepo {
 
         if (!cache.isSame() || !raw.exists()) {
             MCPWrapper wrapper = getWrapper(version, mcp);
-            MCPRuntime runtime = wrapper.getRuntime(project, side);
+            CompletableFuture<File> result = startStep(wrapper, side, raw, cache, step);
+            Map<String, CompletableFuture<File>> others = new LinkedHashMap<>();
+
+            // The other sides share most of their steps with this one, so run their tails alongside it rather than
+            // one after another. Only sides this build expects, or that were set up before, as the rest may never be used.
+            // They are all waited for before returning, so nothing is left running once this build is done.
+            if (STEP_RENAME.equals(step)) {
+                for (String other : SIDES) {
+                    if (other.equals(side))
+                        continue;
+                    File otherRaw = cacheMC(other, version, classifier, ext);
+                    File otherInput = cacheMC(other, version, classifier, ext + ".input");
+                    if (!expectedSides.contains(other) && !otherInput.exists())
+                        continue;
+                    HashStore otherCache = commonHash(mcp).load(otherInput);
+                    if (!otherCache.isSame() || !otherRaw.exists())
+                        others.put(other, startStep(wrapper, other, otherRaw, otherCache, step));
+                }
+            }
+
             try {
-                File output = runtime.execute(log, step);
-                FileUtils.copyFile(output, raw);
-                cache.save();
-                Utils.updateHash(raw, HashFunction.SHA1);
-            } catch (IOException e) {
-                throw e;
-            } catch (Exception e) {
-                e.printStackTrace();
-                log.lifecycle(e.getMessage());
-                if (e instanceof RuntimeException) throw (RuntimeException)e;
-                throw new RuntimeException(e);
+                CompletableFuture.allOf(others.values().toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+                result.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException)cause;
+                cause.printStackTrace();
+                log.lifecycle(cause.getMessage());
+                if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                throw new RuntimeException(cause);
+            } finally {
+                // Their inputs aren't saved when they fail, so they're tried again when they're asked for
+                for (Map.Entry<String, CompletableFuture<File>> other : others.entrySet()) {
+                    try {
+                        other.getValue().join();
+                    } catch (CompletionException e) {
+                        log.warn("Failed to set up " + other.getKey() + " alongside " + side + ": " + e.getCause().getMessage());
+                    }
+                }
             }
         }
         return raw;
     }
 
+    /**
+     * Runs a side's runtime up to the given step on its own thread and copies the output to the repo, or returns the
+     * run already in progress for it.
+     */
+    private CompletableFuture<File> startStep(MCPWrapper wrapper, String side, File raw, HashStore cache, String step) {
+        synchronized (running) {
+            CompletableFuture<File> ret = running.get(raw);
+            if (ret != null)
+                return ret;
+
+            MCPRuntime runtime = wrapper.getRuntime(project, side);
+            ret = CompletableFuture.supplyAsync(() -> {
+                try {
+                    File output = runtime.execute(log, step);
+                    store.release(raw);
+                    FileUtils.copyFile(output, raw);
+                    store.intern(raw);
+                    cache.save();
+                    Utils.updateHash(raw, HashFunction.SHA1);
+                    return raw;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, SIDE_POOL);
+            running.put(raw, ret);
+            // Drop it once done, so a failed run is retried the next time the side is asked for.
+            ret.whenComplete((file, error) -> {
+                synchronized (running) {
+                    running.remove(raw);
+                }
+            });
+            return ret;
+        }
+    }
+
     private synchronized MCPWrapper getWrapper(String version, File data) throws IOException {
         String hash = HashFunction.SHA1.hash(data);
         MCPWrapper ret = wrappers.get(version);
@@ -336,16 +425,6 @@ public class MCPRepo extends BaseRepo {
         return MappingProviders.getInfo(project, channel, version).get();
     }
 
-    private McpNames loadMCPNames(String name, File data) throws IOException {
-        McpNames map = mapCache.get(name);
-        String hash = HashFunction.SHA1.hash(data);
-        if (map == null || !hash.equals(map.hash)) {
-            map = McpNames.load(data);
-            mapCache.put(name, map);
-        }
-        return map;
-    }
-
     @SuppressWarnings("unused")
     private File findRenames(String classifier, IMappingFile.Format format, String version, String mapping, boolean obf, boolean reverse) throws IOException {
         String ext = format.name().toLowerCase();
@@ -365,7 +444,7 @@ public class MCPRepo extends BaseRepo {
             if (!obf)
                 input = input.reverse().chain(input); //SRG->OBF + OBF->SRG = SRG->SRG
 
-            McpNames map = loadMCPNames(mapping, names);
+            McpNames map = MappingCache.getNames(names);
             IMappingFile ret = input.rename(new IRenamer() {
                 @Override
                 public String rename(IField value) {
@@ -401,7 +480,9 @@ public class MCPRepo extends BaseRepo {
         if (!cache.isSame() || !extra.exists()) {
             MCPWrapper wrapper = getWrapper(version, mcp);
             byte[] data = wrapper.getData("mappings");
+            store.release(extra);
             MinecraftRepo.splitJar(raw, new ByteArrayInputStream(data), extra, false, true);
+            store.intern(extra);
             cache.save();
         }
 
@@ -27,12 +27,19 @@ import com.google.gson.JsonObject;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Collection;
+import java.util.Collections;
 
 class DownloadCoreFunction extends DownloadFileFunction {
     DownloadCoreFunction(String artifact, String ext) {
         super(env -> artifact + '.' + ext, env -> getDownloadInfo(env, artifact, ext));
     }
 
+    @Override
+    public Collection<String> getStepDependencies() {
+        return Collections.singleton("downloadJson");
+    }
+
     private static DownloadInfo getDownloadInfo(MCPEnvironment environment, String artifact, String extension) {
         try {
             Gson gson = new Gson();
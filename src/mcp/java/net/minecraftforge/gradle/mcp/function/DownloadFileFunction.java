@@ -44,6 +44,11 @@ class DownloadFileFunction implements MCPFunction {
         this(env -> defaultOutput, env -> new DownloadInfo(url, null, "unknown", null, null));
     }
 
+    @Override
+    public String getShareKey() {
+        return "";
+    }
+
     @Override
     public File execute(MCPEnvironment environment) throws Exception {
         File output = (File)environment.getArguments().computeIfAbsent("output", k -> environment.getFile(outputGetter.apply(environment)));
@@ -28,6 +28,8 @@ import com.google.gson.JsonObject;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Collection;
+import java.util.Collections;
 
 class DownloadVersionJSONFunction extends DownloadFileFunction {
 
@@ -37,6 +39,11 @@ class DownloadVersionJSONFunction extends DownloadFileFunction {
         super(env -> DEFAULT_OUTPUT, DownloadVersionJSONFunction::getDownloadInfo);
     }
 
+    @Override
+    public Collection<String> getStepDependencies() {
+        return Collections.singleton("downloadManifest");
+    }
+
     private static DownloadInfo getDownloadInfo(MCPEnvironment environment) {
         try {
             Gson gson = new Gson();
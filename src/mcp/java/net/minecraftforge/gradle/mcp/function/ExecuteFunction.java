@@ -21,6 +21,9 @@
 package net.minecraftforge.gradle.mcp.function;
 
 import net.minecraftforge.gradle.common.util.HashStore;
+import net.minecraftforge.gradle.common.util.InProcessRunner;
+import net.minecraftforge.gradle.common.util.ToolGovernor;
+import net.minecraftforge.gradle.common.util.ToolWorkerPool;
 import net.minecraftforge.gradle.common.util.Utils;
 import net.minecraftforge.gradle.mcp.util.MCPEnvironment;
 
@@ -29,10 +32,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.jar.Attributes;
@@ -66,6 +73,31 @@ class ExecuteFunction implements MCPFunction {
         this.data = data;
     }
 
+    @Override
+    public String getShareKey() {
+        if (getClass() != ExecuteFunction.class)
+            return null; // Subclasses have inputs of their own
+
+        StringBuilder ret = new StringBuilder();
+        for (String[] args : new String[][] { jvmArgs, runArgs }) {
+            for (String arg : args) {
+                Matcher matcher = REPLACE_PATTERN.matcher(arg);
+                if (matcher.find() && data.containsKey(matcher.group(1)))
+                    ret.append(matcher.group(1)).append('=').append(data.get(matcher.group(1))).append('\n');
+            }
+        }
+        return ret.append(new TreeMap<>(envVars)).toString();
+    }
+
+    @Override
+    public String getCacheKey(MCPEnvironment environment) {
+        if (getClass() != ExecuteFunction.class)
+            return null; // Subclasses pass files by path
+
+        // The jar, arguments and files they use are in the hash store
+        return "env=" + new TreeMap<>(envVars);
+    }
+
     @Override
     public void initialize(MCPEnvironment environment, ZipFile zip) throws IOException {
         analyzeAndExtract(environment, zip, jvmArgs);
@@ -91,19 +123,28 @@ class ExecuteFunction implements MCPFunction {
         replacedArgs.remove("output");
         replacedArgs.remove("log");
 
-        HashStore hashStore = new HashStore(environment.project).load(environment.getFile("lastinput.sha1"));
+        HashStore hashStore = new HashStore(environment.project).load(environment.getFile("lastinput.sha1")).output(output);
         hashStore.add("args", String.join(" ", runArgs));
         hashStore.add("jvmargs", String.join(" ", jvmArgs));
         hashStore.add("jar", jar);
-        replacedArgs.forEach((key, value) -> {
+        for (Map.Entry<String, Object> entry : replacedArgs.entrySet()) {
+            Object value = entry.getValue();
             if (value instanceof File) {
-                hashStore.add(key, (File)value);
+                if ("libraries".equals(entry.getKey())) {
+                    addLibraries(hashStore, entry.getKey(), (File)value);
+                } else {
+                    hashStore.add(entry.getKey(), (File)value);
+                }
             } else if (value instanceof String) {
-                hashStore.add(key, (String)value);
+                hashStore.add(entry.getKey(), (String)value);
             }
-        });
+        }
         addInputs(hashStore);
         if (hashStore.isSame() && output.exists()) return output;
+        if (environment.restoreCached(hashStore, output)) {
+            hashStore.save();
+            return output;
+        }
 
         // Delete previous output
         if (output.exists()) output.delete();
@@ -117,28 +158,48 @@ class ExecuteFunction implements MCPFunction {
         String mainClass = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
         jarFile.close();
 
+        // Tools that don't need JVM args of their own may be allowed in this JVM, the rest reuse a warm one
+        boolean inProcess = jvmArgList.isEmpty() && InProcessRunner.isAllowed(mainClass);
+        boolean worker = !inProcess && ToolWorkerPool.isEnabled();
+        List<String> forkArgs = inProcess ? jvmArgList : ToolGovernor.getJvmArgs(jvmArgList);
+
         // Execute command
         try (BufferedOutputStream log_out = new BufferedOutputStream(new FileOutputStream(environment.getFile("console.log")))) {
-            environment.project.javaexec(java -> {
-                PrintWriter writer = new PrintWriter(log_out);
-                Function<String, String> quote = s -> '"' + s + '"';
-                writer.println("JVM Args:    " + jvmArgList.stream().map(quote).collect(Collectors.joining(", ")));
-                writer.println("Run Args:    " + runArgList.stream().map(quote).collect(Collectors.joining(", ")));
-                writer.println("Classpath:   " + jar.getAbsolutePath());
-                writer.println("Working Dir: " + workingDir.getAbsolutePath());
-                writer.println("Main Class:  " + mainClass);
-                writer.flush();
-                java.setJvmArgs(jvmArgList);
-                java.setArgs(runArgList);
-                java.setClasspath(environment.project.files(jar));
-                java.setWorkingDir(workingDir);
-                java.setMain(mainClass);
-                java.setStandardOutput(log_out);
-            }).rethrowFailure().assertNormalExitValue();
+            PrintWriter writer = new PrintWriter(log_out);
+            Function<String, String> quote = s -> '"' + s + '"';
+            writer.println("JVM Args:    " + forkArgs.stream().map(quote).collect(Collectors.joining(", ")));
+            writer.println("Run Args:    " + runArgList.stream().map(quote).collect(Collectors.joining(", ")));
+            writer.println("Classpath:   " + jar.getAbsolutePath());
+            writer.println("Working Dir: " + (inProcess ? System.getProperty("user.dir") : workingDir.getAbsolutePath()));
+            writer.println("Main Class:  " + mainClass);
+            writer.println("Runner:      " + (inProcess ? "in process" : worker ? "worker" : "fork"));
+            writer.flush();
+
+            if (inProcess || worker) {
+                List<File> classpath = Collections.singletonList(jar);
+                int exit = inProcess ? InProcessRunner.run(classpath, mainClass, runArgList, log_out)
+                        : ToolWorkerPool.run(classpath, forkArgs, workingDir, mainClass, runArgList, log_out);
+                if (exit != 0)
+                    throw new RuntimeException(mainClass + " finished with non-zero exit value " + exit + ", see " + environment.getFile("console.log"));
+            } else {
+                try (ToolGovernor.Lease lease = ToolGovernor.acquire(jar.getName(), forkArgs)) {
+                    long start = System.currentTimeMillis();
+                    environment.project.javaexec(java -> {
+                        java.setJvmArgs(forkArgs);
+                        java.setArgs(runArgList);
+                        java.setClasspath(environment.project.files(jar));
+                        java.setWorkingDir(workingDir);
+                        java.setMain(mainClass);
+                        java.setStandardOutput(log_out);
+                    }).rethrowFailure().assertNormalExitValue();
+                    ToolGovernor.record(lease, System.currentTimeMillis() - start, -1);
+                }
+            }
         }
 
         // Return the output file
         hashStore.save();
+        environment.storeCached(hashStore, output);
         return output;
     }
 
@@ -163,8 +224,10 @@ class ExecuteFunction implements MCPFunction {
 
             String dataElement = data.get(argName);
             if (dataElement != null) {
-                inputs.put(argName, environment.getFile(dataElement));
-                return dataElement;
+                // Absolute, as tools run in process don't run in the working directory
+                File file = environment.getFile(dataElement);
+                inputs.put(argName, file);
+                return file.getAbsolutePath();
             }
         }
         throw new IllegalStateException("The string '" + value + "' did not return a valid substitution match!");
@@ -198,4 +261,19 @@ class ExecuteFunction implements MCPFunction {
 
     }
 
+    /**
+     * Adds a listing written by {@link ListLibrariesFunction} by the contents of the jars it lists. Their paths are in
+     * the Gradle cache, which differs between machines and users, and would keep the step cache key from matching.
+     */
+    private static void addLibraries(HashStore cache, String key, File listing) throws IOException {
+        List<String> lines = Files.readAllLines(listing.toPath(), StandardCharsets.UTF_8);
+        if (!lines.stream().allMatch(line -> line.startsWith("-e="))) {
+            cache.add(key, listing); // Not a listing we wrote
+            return;
+        }
+        cache.add(key, String.valueOf(lines.size()));
+        for (int i = 0; i < lines.size(); i++)
+            cache.add(key + '/' + i, new File(lines.get(i).substring(3)));
+    }
+
 }
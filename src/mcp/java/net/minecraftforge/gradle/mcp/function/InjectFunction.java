@@ -20,16 +20,18 @@
 
 package net.minecraftforge.gradle.mcp.function;
 
+import net.minecraftforge.gradle.common.util.HashFunction;
 import net.minecraftforge.gradle.common.util.HashStore;
 import net.minecraftforge.gradle.common.util.Utils;
+import net.minecraftforge.gradle.common.util.ZipCompression;
+import net.minecraftforge.gradle.common.util.ZipReader;
+import net.minecraftforge.gradle.common.util.ZipWriter;
 import net.minecraftforge.gradle.mcp.util.MCPEnvironment;
 import net.minecraftforge.srgutils.MinecraftVersion;
 
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
@@ -39,8 +41,6 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 class InjectFunction implements MCPFunction {
     private static final MinecraftVersion v1_14_4 = MinecraftVersion.from("1.14.4");
@@ -76,23 +76,21 @@ class InjectFunction implements MCPFunction {
         File output = environment.getFile("output.jar");
 
         File hashFile = environment.getFile("lastinput.sha1");
-        HashStore hashStore = new HashStore(environment.project).load(hashFile);
-        if (hashStore.isSame(input) && output.exists()) return output;
-
-        if (output.exists()) output.delete();
-        if (!output.getParentFile().exists()) output.getParentFile().mkdirs();
-        output.createNewFile();
+        HashStore hashStore = new HashStore(environment.project).load(hashFile).output(output);
+        environment.addInput(hashStore, "input", input);
+        if (hashStore.isSame() && environment.exists(output)) return output;
+        if (environment.restoreCached(hashStore, output)) {
+            hashStore.save(hashFile);
+            return output;
+        }
 
-        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(input));
-            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(output)) ) {
+        try (ZipReader zis = environment.openZip(input);
+            ZipWriter zos = new ZipWriter(environment.createOutput(output), ZipCompression.INTERMEDIATE) ) {
 
             Set<String> visited = new HashSet<>();
 
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                zos.putNextEntry(entry);
-                IOUtils.copyLarge(zis, zos);
-                zos.closeEntry();
+            for (ZipReader.Entry entry : zis.getEntries()) {
+                zos.copyEntry(entry);
                 if (template != null) {
                     String pkg = entry.isDirectory() && !entry.getName().endsWith("/") ? entry.getName() : entry.getName().indexOf('/') == -1 ? "" : entry.getName().substring(0, entry.getName().lastIndexOf('/'));
                     if (visited.add(pkg)) {
@@ -119,9 +117,20 @@ class InjectFunction implements MCPFunction {
         }
 
         hashStore.save(hashFile);
+        environment.storeCached(hashStore, output);
         return output;
     }
 
+    @Override
+    public String getCacheKey(MCPEnvironment environment) throws IOException {
+        return "inject=" + inject + "\nside=" + environment.side + "\nversion=" + environment.getMinecraftVersion() + "\nconfig=" + HashFunction.SHA1.hash(environment.getConfigZip());
+    }
+
+    @Override
+    public boolean supportsInMemoryInputs() {
+        return true;
+    }
+
     @Override
     public  void cleanup(MCPEnvironment environment) {
         if (this.added != null) {
@@ -34,6 +34,8 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -41,6 +43,16 @@ import java.nio.charset.StandardCharsets;
 
 class ListLibrariesFunction implements MCPFunction {
 
+    @Override
+    public Collection<String> getStepDependencies() {
+        return Collections.singleton("downloadJson");
+    }
+
+    @Override
+    public String getShareKey() {
+        return "";
+    }
+
     @Override
     public File execute(MCPEnvironment environment) {
         File output = (File)environment.getArguments().computeIfAbsent("output", (key) -> environment.getFile("libraries.txt"));
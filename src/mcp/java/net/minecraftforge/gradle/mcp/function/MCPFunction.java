@@ -23,7 +23,10 @@ package net.minecraftforge.gradle.mcp.function;
 import net.minecraftforge.gradle.common.util.HashStore;
 import net.minecraftforge.gradle.mcp.util.MCPEnvironment;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.zip.ZipFile;
 
@@ -43,4 +46,36 @@ public interface MCPFunction extends Serializable {
     default void addInputs(HashStore cache, String prefix) {
     }
 
+    /**
+     * Names of steps whose outputs this function reads with {@link MCPEnvironment#getStepOutput(String)}, rather
+     * than through its arguments, so they are finished before it runs.
+     */
+    default Collection<String> getStepDependencies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns what this function's output depends on besides its step type, arguments and the steps it uses, so that
+     * identical steps of different sides can share one output. Null if the output can't be shared.
+     */
+    default String getShareKey() {
+        return null;
+    }
+
+    /**
+     * Returns what this function's output depends on besides the inputs in its hash store, so that builds elsewhere
+     * with the same inputs can take the output from the step cache. Null if the output can't be cached.
+     */
+    default String getCacheKey(MCPEnvironment environment) throws IOException {
+        return null;
+    }
+
+    /**
+     * Whether this function reads its inputs through {@link MCPEnvironment#openZip(File)}, so outputs of earlier
+     * steps that are held in memory don't need to be written to disk for it.
+     */
+    default boolean supportsInMemoryInputs() {
+        return false;
+    }
+
 }
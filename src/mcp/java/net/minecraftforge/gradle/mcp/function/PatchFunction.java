@@ -44,6 +44,16 @@ class PatchFunction implements MCPFunction {
         path = data.get("patches");
     }
 
+    @Override
+    public String getShareKey() {
+        return "patches=" + path;
+    }
+
+    @Override
+    public String getCacheKey(MCPEnvironment environment) {
+        return "patches=" + path; // Each patch is in the hash store
+    }
+
     @Override
     public File execute(MCPEnvironment environment) throws Exception {
         File input = (File) environment.getArguments().get("input");
@@ -51,8 +61,8 @@ class PatchFunction implements MCPFunction {
         File rejects = environment.getFile("rejects.zip");
 
         File hashFile = environment.getFile("lastinput.sha1");
-        HashStore hashStore = new HashStore(environment.project).load(hashFile);
-        hashStore.add(input);
+        HashStore hashStore = new HashStore(environment.project).load(hashFile).output(output);
+        environment.addInput(hashStore, "input", input);
 
         //Read patches into HashStore
         try (ZipInputStream zin = new ZipInputStream(new FileInputStream(environment.getConfigZip()))) {
@@ -67,10 +77,14 @@ class PatchFunction implements MCPFunction {
         if (hashStore.isSame() && output.exists()) {
             return output;
         }
+        if (environment.restoreCached(hashStore, output)) {
+            hashStore.save(hashFile);
+            return output;
+        }
 
         CliOperation.Result<PatchOperation.PatchesSummary> result = PatchOperation.builder()
                 .logTo(new LoggingOutputStream(environment.logger, LogLevel.LIFECYCLE))
-                .basePath(input.toPath())
+                .basePath(environment.getOnDisk(input).toPath()) // DiffPatch only reads paths
                 .patchesPath(environment.getConfigZip().toPath())
                 .patchesPrefix(path)
                 .outputPath(output.toPath())
@@ -86,7 +100,13 @@ class PatchFunction implements MCPFunction {
             throw new RuntimeException("Patch failure.");
         } else {
             hashStore.save(hashFile);
+            environment.storeCached(hashStore, output);
         }
         return output;
     }
+
+    @Override
+    public boolean supportsInMemoryInputs() {
+        return true;
+    }
 }
@@ -20,22 +20,20 @@
 
 package net.minecraftforge.gradle.mcp.function;
 
+import net.minecraftforge.gradle.common.util.HashFunction;
 import net.minecraftforge.gradle.common.util.HashStore;
-import net.minecraftforge.gradle.common.util.Utils;
+import net.minecraftforge.gradle.common.util.ZipCompression;
+import net.minecraftforge.gradle.common.util.ZipReader;
+import net.minecraftforge.gradle.common.util.ZipWriter;
 import net.minecraftforge.gradle.mcp.util.MCPEnvironment;
-import org.apache.commons.io.IOUtils;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
+import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import java.util.zip.ZipFile;
 
@@ -64,34 +62,50 @@ class StripJarFunction implements MCPFunction {
         boolean whitelist = ((String)environment.getArguments().getOrDefault("mode", "whitelist")).equalsIgnoreCase("whitelist");
 
         File hashFile = environment.getFile("lastinput.sha1");
-        HashStore hashStore = new HashStore(environment.project).load(hashFile);
-        if (hashStore.isSame(input) && output.exists()) return output;
+        HashStore hashStore = new HashStore(environment.project).load(hashFile).output(output);
+        environment.addInput(hashStore, "input", input);
+        if (hashStore.isSame() && environment.exists(output)) return output;
+        if (environment.restoreCached(hashStore, output)) {
+            hashStore.save(hashFile);
+            return output;
+        }
 
-        Utils.createEmpty(output);
-        strip(input, output, whitelist);
+        strip(environment, input, output, whitelist);
 
         hashStore.save(hashFile);
+        environment.storeCached(hashStore, output);
         return output;
     }
 
-    private void strip(File input, File output, boolean whitelist) throws IOException {
-        JarInputStream is = new JarInputStream(new FileInputStream(input));
-        JarOutputStream os = new JarOutputStream(new FileOutputStream(output));
-
-        // Ignore any entry that's not allowed
-        JarEntry entry;
-        while ((entry = is.getNextJarEntry()) != null) {
-            if (!isEntryValid(entry, whitelist)) continue;
-            os.putNextEntry(entry);
-            IOUtils.copyLarge(is, os);
-            os.closeEntry();
+    private void strip(MCPEnvironment environment, File input, File output, boolean whitelist) throws IOException {
+        try (ZipReader is = environment.openZip(input);
+             ZipWriter os = new ZipWriter(environment.createOutput(output), ZipCompression.INTERMEDIATE)) {
+            // Ignore any entry that's not allowed
+            for (ZipReader.Entry entry : is.getEntries()) {
+                if (!isEntryValid(entry, whitelist)) continue;
+                os.copyEntry(entry);
+            }
         }
+    }
+
+    @Override
+    public String getShareKey() {
+        return "mappings=" + mappings;
+    }
 
-        os.close();
-        is.close();
+    @Override
+    public String getCacheKey(MCPEnvironment environment) throws IOException {
+        return "mappings=" + mappings + "\nmode=" + environment.getArguments().getOrDefault("mode", "whitelist") + "\nconfig=" + HashFunction.SHA1.hash(environment.getConfigZip());
+    }
+
+    @Override
+    public boolean supportsInMemoryInputs() {
+        return true;
     }
 
-    private boolean isEntryValid(JarEntry entry, boolean whitelist) {
+    private boolean isEntryValid(ZipReader.Entry entry, boolean whitelist) {
+        // The manifest was never copied, as JarInputStream consumes it.
+        if (entry.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME)) return false;
         return !entry.isDirectory() && filter.contains(entry.getName()) == whitelist;
     }
 
@@ -31,6 +31,7 @@ import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import net.minecraftforge.gradle.common.util.MavenArtifactDownloader;
+import net.minecraftforge.gradle.common.util.MappingCache;
 import net.minecraftforge.gradle.common.util.McpNames;
 import net.minecraftforge.gradle.mcp.MCPRepo;
 import net.minecraftforge.srgutils.IMappingFile;
@@ -65,7 +66,7 @@ public class GenerateSRG extends DefaultTask {
         if (!notch)
             input = input.reverse().chain(input); // Reverse makes SRG->OBF, chain makes SRG->SRG
 
-        McpNames map = McpNames.load(names);
+        McpNames map = MappingCache.getNames(names);
         IMappingFile ret = input.rename(new IRenamer() {
             @Override
             public String rename(IField value) {
@@ -0,0 +1,169 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.mcp.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds step outputs in memory so the next in-process step can read them without a round trip through the disk.
+ * Outputs are written to their file when something needs the file itself, when the memory budget runs out, or at the
+ * latest once every step has run, so the next build finds them up to date.
+ * <p>
+ * The budget is shared by every runtime in the daemon and is set in megabytes with
+ * {@code net.minecraftforge.gradle.mcp.memory}. It defaults to an eighth of this JVM's heap, at most 256MB, and 0
+ * writes every output straight to disk.
+ */
+class ArtifactStore {
+    private static final long BUDGET = Long.getLong("net.minecraftforge.gradle.mcp.memory", Math.min(Runtime.getRuntime().maxMemory() / 8 / 1024 / 1024, 256)) * 1024 * 1024;
+    private static final AtomicLong USED = new AtomicLong();
+
+    private final Map<File, byte[]> held = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the output for writing. Any previous file is deleted first, so an output that never reaches the disk
+     * is not mistaken for an up to date one by the next build.
+     */
+    OutputStream create(File file) throws IOException {
+        file = file.getAbsoluteFile();
+        release(file);
+        Files.deleteIfExists(file.toPath());
+        if (!file.getParentFile().exists())
+            file.getParentFile().mkdirs();
+        if (BUDGET <= 0)
+            return new FileOutputStream(file);
+        return new Output(file);
+    }
+
+    byte[] get(File file) {
+        return held.get(file.getAbsoluteFile());
+    }
+
+    /**
+     * Writes the output to its file if it is only held in memory, and releases the memory.
+     */
+    synchronized void flush(File file) throws IOException {
+        file = file.getAbsoluteFile();
+        byte[] data = held.get(file);
+        if (data == null)
+            return;
+        Files.write(file.toPath(), data);
+        release(file);
+    }
+
+    /**
+     * Writes every output that is still only in memory to its file.
+     */
+    synchronized void flushAll() throws IOException {
+        for (File file : held.keySet())
+            flush(file);
+    }
+
+    /**
+     * Drops every output that is still only in memory, such as those that failed to be written. Their producing steps
+     * will run again next time.
+     */
+    void clear() {
+        for (File file : held.keySet())
+            release(file);
+    }
+
+    private void release(File file) {
+        byte[] data = held.remove(file);
+        if (data != null)
+            USED.addAndGet(-data.length);
+    }
+
+    private static boolean reserve(long size) {
+        long used;
+        do {
+            used = USED.get();
+            if (used + size > BUDGET)
+                return false;
+        } while (!USED.compareAndSet(used, used + size));
+        return true;
+    }
+
+    private class Output extends OutputStream {
+        private final File file;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        private OutputStream disk;
+        private long reserved;
+        private boolean closed;
+
+        private Output(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (disk == null) {
+                if (reserve(len)) {
+                    reserved += len;
+                    buffer.write(b, off, len);
+                    return;
+                }
+                spill();
+            }
+            disk.write(b, off, len);
+        }
+
+        private void spill() throws IOException {
+            disk = new FileOutputStream(file);
+            buffer.writeTo(disk);
+            buffer = null;
+            USED.addAndGet(-reserved);
+            reserved = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (disk != null)
+                disk.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            if (disk != null) {
+                disk.close();
+            } else {
+                // The reservation is carried over to the held data, which is released on flush or clear.
+                held.put(file, buffer.toByteArray());
+                buffer = null;
+            }
+        }
+    }
+}
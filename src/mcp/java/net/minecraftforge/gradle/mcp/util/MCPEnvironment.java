@@ -20,34 +20,44 @@
 
 package net.minecraftforge.gradle.mcp.util;
 
+import net.minecraftforge.gradle.common.util.HashFunction;
+import net.minecraftforge.gradle.common.util.HashStore;
+import net.minecraftforge.gradle.common.util.ZipReader;
+import net.minecraftforge.gradle.mcp.function.MCPFunction;
 import net.minecraftforge.srgutils.MinecraftVersion;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.Map;
 
 public class MCPEnvironment {
 
     private final MCPRuntime runtime;
+    private final MCPRuntime.Step step;
     public final Project project;
     public final String side;
     public Logger logger;
     private final MinecraftVersion mcVersion;
 
-    public MCPEnvironment(MCPRuntime runtime, String mcVersion, String side) {
+    MCPEnvironment(MCPRuntime runtime, MCPRuntime.Step step) {
         this.runtime = runtime;
+        this.step = step;
         this.project = runtime.project;
-        this.side = side;
-        this.mcVersion = MinecraftVersion.from(mcVersion);
+        this.side = runtime.side;
+        this.mcVersion = runtime.mcVersion;
     }
 
     public Map<String, Object> getArguments() {
-        return runtime.currentStep.arguments;
+        return step.arguments;
     }
 
     public File getWorkingDir() {
-        return runtime.currentStep.workingDirectory;
+        return step.workingDirectory;
     }
 
     public File getConfigZip() {
@@ -66,14 +76,101 @@ public class MCPEnvironment {
     }
 
     public File getStepOutput(String name) {
-        MCPRuntime.Step step = runtime.steps.get(name);
-        if (step == null) {
+        MCPRuntime.Step other = runtime.steps.get(name);
+        if (other == null) {
             throw new IllegalArgumentException("Could not find a step named " + name);
         }
-        if (step.output == null) {
+        File output = other.output;
+        if (output == null) {
             throw new IllegalArgumentException("Attempted to get the output of an unexecuted step: " + name);
         }
-        return step.output;
+        if (!step.supportsInMemoryInputs()) {
+            try {
+                runtime.artifacts.flush(output);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Opens a step output for writing. The data may be kept in memory and only written to the file once a step
+     * that cannot read it from memory asks for it.
+     */
+    public OutputStream createOutput(File file) throws IOException {
+        return runtime.artifacts.create(file);
+    }
+
+    /**
+     * Opens a jar written by {@link #createOutput(File)} or any other file. Only jars still held in memory were
+     * written by a step of ours, so only those are opened as raw.
+     */
+    public ZipReader openZip(File file) throws IOException {
+        byte[] data = runtime.artifacts.get(file);
+        return data == null ? new ZipReader(file) : new ZipReader(data, true);
+    }
+
+    /**
+     * Writes a file held in memory to disk, for steps that can read it from memory but hand it to a tool that can't.
+     */
+    public File getOnDisk(File file) throws IOException {
+        runtime.artifacts.flush(file);
+        return file;
+    }
+
+    public boolean exists(File file) {
+        return runtime.artifacts.get(file) != null || file.exists();
+    }
+
+    /**
+     * Adds a file that may only be held in memory to the cache.
+     */
+    public HashStore addInput(HashStore cache, String key, File file) {
+        byte[] data = runtime.artifacts.get(file);
+        return data == null ? cache.add(key, file) : cache.add(key, data);
+    }
+
+    /**
+     * Takes the output from the {@link StepCache} if it holds one made from the same inputs and
+     * {@link MCPFunction#getCacheKey(MCPEnvironment)}.
+     *
+     * @return If the output was restored.
+     */
+    public boolean restoreCached(HashStore inputs, File output) {
+        if (!StepCache.isEnabled())
+            return false;
+        try {
+            String key = getCacheKey(inputs);
+            if (key == null || !StepCache.restore(key, output))
+                return false;
+            logger.lifecycle("   Restored from the step cache: " + output);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not read the step cache, running the step instead", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds the output to the {@link StepCache}, for other builds with the same inputs.
+     */
+    public void storeCached(HashStore inputs, File output) {
+        if (!StepCache.isEnabled())
+            return;
+        try {
+            String key = getCacheKey(inputs);
+            if (key != null)
+                StepCache.store(key, output, runtime.artifacts.get(output));
+        } catch (IOException e) {
+            logger.warn("Could not write to the step cache", e);
+        }
+    }
+
+    @Nullable
+    private String getCacheKey(HashStore inputs) throws IOException {
+        String key = step.function.getCacheKey(this);
+        return key == null ? null : HashFunction.SHA1.hash(step.function.getClass().getName() + '\n' + key + '\n' + inputs.getDigest());
     }
 
     public MinecraftVersion getMinecraftVersion() {
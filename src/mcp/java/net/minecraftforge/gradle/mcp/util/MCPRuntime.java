@@ -22,40 +22,73 @@ package net.minecraftforge.gradle.mcp.util;
 
 import net.minecraftforge.gradle.common.config.MCPConfigV1;
 import net.minecraftforge.gradle.common.config.MCPConfigV2;
+import net.minecraftforge.gradle.common.util.HashFunction;
 import net.minecraftforge.gradle.common.util.MavenArtifactDownloader;
+import net.minecraftforge.gradle.common.util.Trace;
 import net.minecraftforge.gradle.mcp.function.MCPFunctionFactory;
 import net.minecraftforge.gradle.mcp.function.MCPFunction;
+import net.minecraftforge.srgutils.MinecraftVersion;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipFile;
 
+/**
+ * Runs the steps of an MCPConfig pipeline. Steps only depend on the steps whose outputs they use, so steps that don't
+ * depend on each other can run at the same time, on up to {@code net.minecraftforge.gradle.mcp.threads} threads.
+ * This defaults to 1, running steps one at a time on the calling thread, as listing libraries resolves Gradle
+ * configurations, which isn't known to be safe off Gradle's own threads.
+ */
 public class MCPRuntime {
 
     private static final Pattern OUTPUT_REPLACE_PATTERN = Pattern.compile("^\\{(\\w+)Output\\}$");
+    private static final int THREADS = Integer.getInteger("net.minecraftforge.gradle.mcp.threads", 1);
+    private static final ForkJoinPool POOL = THREADS > 1 ? new ForkJoinPool(THREADS) : null;
 
     final Project project;
-    final MCPEnvironment environment;
+    final MinecraftVersion mcVersion;
+    final String side;
     final File mcpDirectory;
 
     final File zipFile;
+    final ArtifactStore artifacts = new ArtifactStore();
+    @Nullable
+    private final SharedStepOutputs shared;
 
     final Map<String, Step> steps = new LinkedHashMap<>();
-    Step currentStep;
 
     public MCPRuntime(Project project, File mcp_config, MCPConfigV2 config, String side,
             File mcpDirectory, Map<String, MCPFunction> extraPres) {
+        this(project, mcp_config, config, side, mcpDirectory, extraPres, null);
+    }
+
+    /**
+     * @param shared Outputs shared with the other runtimes of the same config, so steps they have in common only run once.
+     */
+    public MCPRuntime(Project project, File mcp_config, MCPConfigV2 config, String side,
+            File mcpDirectory, Map<String, MCPFunction> extraPres, @Nullable SharedStepOutputs shared) {
         this.project = project;
-        this.environment = new MCPEnvironment(this, config.getVersion(), side);
+        this.shared = shared;
+        this.mcVersion = MinecraftVersion.from(config.getVersion());
+        this.side = side;
         this.mcpDirectory = mcpDirectory;
 
         this.zipFile = mcp_config;
@@ -78,7 +111,7 @@ public class MCPRuntime {
                         String name = entry.getKey();
                         Map<String, String> args = new HashMap<>();
                         args.put("input", input);
-                        this.steps.put(name, new Step(name, entry.getValue(), args, new File(this.mcpDirectory, name), data));
+                        this.steps.put(name, new Step(name, null, entry.getValue(), args, new File(this.mcpDirectory, name), data));
                         input = "{" + name +"Output}";
                         lastName = name;
                     }
@@ -104,7 +137,7 @@ public class MCPRuntime {
             }
 
             File workingDir = new File(this.mcpDirectory, step.getName());
-            this.steps.put(step.getName(), new Step(step.getName(), function, step.getValues(), workingDir, data));
+            this.steps.put(step.getName(), new Step(step.getName(), step.getType(), function, step.getValues(), workingDir, data));
         }
     }
 
@@ -122,69 +155,213 @@ public class MCPRuntime {
         return execute(logger, last);
     }
 
-    public File execute(Logger logger, String stop) throws Exception {
-        environment.logger = logger;
-
+    public synchronized File execute(Logger logger, String stop) throws Exception {
         logger.lifecycle("Setting up MCP environment");
 
         logger.lifecycle("Initializing steps");
         ZipFile zip = new ZipFile(zipFile);
         for (Step step : steps.values()) {
             logger.info(" > Initializing '" + step.name + "'");
-            currentStep = step;
+            step.environment.logger = logger;
             step.initialize(zip);
         }
         zip.close();
 
+        // Everything up to the requested step runs, as it always has, even steps it doesn't depend on.
+        List<Step> pending = new ArrayList<>();
+        for (Step step : steps.values()) {
+            pending.add(step);
+            if (step.name.equals(stop))
+                break;
+        }
+        Step last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+
         File ret = null;
         logger.lifecycle("Executing steps");
-        for (Step step : steps.values()) {
-            logger.lifecycle(" > Running '" + step.name + "'");
-            currentStep = step;
-            step.arguments.replaceAll((key, value) -> value instanceof String ? applyStepOutputSubstitutions((String)value) : value);
-            ret = step.execute();
-
-            if (stop != null && stop.equals(step.name)) {
-                logger.lifecycle("Stopping at requested step: " + ret);
-                return ret;
+        if (shared != null)
+            shared.begin();
+        try {
+            try (Trace.Span span = Trace.begin("mcp", "setup").arg("version", mcVersion).arg("side", side)) {
+                if (POOL == null || pending.size() < 2) {
+                    for (Step step : pending)
+                        step.run(span);
+                } else {
+                    runParallel(pending, span);
+                }
             }
+
+            if (last != null)
+                ret = last.output;
+        } finally {
+            // Steps that finished keep their outputs, even when a later one failed
+            try {
+                artifacts.flushAll();
+            } finally {
+                artifacts.clear();
+                if (shared != null)
+                    shared.end();
+            }
+        }
+
+        if (last != null && last.name.equals(stop)) {
+            logger.lifecycle("Stopping at requested step: " + ret);
+            return ret;
         }
 
         logger.lifecycle("MCP environment setup is complete");
         return ret;
     }
 
-    private Object applyStepOutputSubstitutions(String value) {
-        Matcher matcher = OUTPUT_REPLACE_PATTERN.matcher(value);
-        if (!matcher.find()) return value; // Not a replaceable string
+    /**
+     * Starts each step as soon as the steps it depends on are done. Steps are in the order they were declared, which
+     * always has dependencies first, as they could not have run otherwise. If a step fails, the steps that depend on it
+     * are skipped, the others are left to finish, and the first failure in declaration order is thrown.
+     */
+    private void runParallel(List<Step> pending, Trace.Span parent) throws Exception {
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (Step step : pending) {
+            List<CompletableFuture<Void>> deps = step.dependencies.stream().map(futures::get).filter(Objects::nonNull).collect(Collectors.toList());
+            futures.put(step.name, CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+                try {
+                    step.run(parent);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, POOL));
+        }
 
-        String stepName = matcher.group(1);
-        if (stepName != null) {
-            return environment.getStepOutput(stepName);
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            for (CompletableFuture<Void> future : futures.values()) {
+                if (!future.isCompletedExceptionally())
+                    continue;
+                try {
+                    future.join();
+                } catch (CompletionException failure) {
+                    Throwable cause = failure.getCause() == null ? failure : failure.getCause();
+                    if (cause instanceof Exception)
+                        throw (Exception)cause;
+                    if (cause instanceof Error)
+                        throw (Error)cause;
+                    throw failure;
+                }
+            }
+            throw e;
         }
-        throw new IllegalStateException("The string '" + value + "' did not return a valid substitution match!");
     }
 
     class Step {
 
         private final String name;
-        private final MCPFunction function;
+        final MCPFunction function;
+        private final MCPEnvironment environment;
+        private final Set<String> dependencies = new LinkedHashSet<>();
+        @Nullable
+        private final String shareKey;
         final Map<String, Object> arguments;
         final File workingDirectory;
-        File output;
+        volatile File output;
 
-        private Step(String name, MCPFunction function, Map<String, String> arguments, File workingDirectory, Map<String, String> data) {
+        private Step(String name, @Nullable String type, MCPFunction function, Map<String, String> arguments, File workingDirectory, Map<String, String> data) {
             this.name = name;
             this.function = function;
+            this.environment = new MCPEnvironment(MCPRuntime.this, this);
             this.arguments = new HashMap<>(arguments);
             this.workingDirectory = workingDirectory;
             function.loadData(data);
+
+            // Arguments are replaced by the outputs they refer to on the first run, so find what we need up front.
+            for (String value : arguments.values()) {
+                Matcher matcher = value == null ? null : OUTPUT_REPLACE_PATTERN.matcher(value);
+                if (matcher != null && matcher.find())
+                    dependencies.add(matcher.group(1));
+            }
+            dependencies.addAll(function.getStepDependencies());
+            this.shareKey = getShareKey(type, arguments);
+        }
+
+        /**
+         * Identifies what this step does, independently of its name and side: the step type, what the function depends
+         * on, its arguments, and the keys of the steps whose outputs it uses.
+         */
+        @Nullable
+        private String getShareKey(@Nullable String type, Map<String, String> arguments) {
+            String key = type == null || shared == null ? null : function.getShareKey();
+            if (key == null)
+                return null;
+
+            StringBuilder buf = new StringBuilder(type).append('\n').append(key).append('\n');
+            for (Entry<String, String> entry : new TreeMap<>(arguments).entrySet()) {
+                String value = entry.getValue();
+                Matcher matcher = value == null ? null : OUTPUT_REPLACE_PATTERN.matcher(value);
+                if (matcher != null && matcher.find()) {
+                    Step dep = steps.get(matcher.group(1));
+                    if (dep == null || dep.shareKey == null)
+                        return null;
+                    value = "{" + dep.shareKey + "}";
+                }
+                buf.append(entry.getKey()).append('=').append(value).append('\n');
+            }
+            for (String name : function.getStepDependencies()) {
+                Step dep = steps.get(name);
+                if (dep == null || dep.shareKey == null)
+                    return null;
+                buf.append(name).append("=>").append(dep.shareKey).append('\n');
+            }
+            return HashFunction.SHA1.hash(buf.toString());
         }
 
         private void initialize(ZipFile zip) throws Exception {
             function.initialize(environment, zip);
         }
 
+        private void run(Trace.Span parent) throws Exception {
+            try (Trace.Span span = Trace.begin(parent, "mcp", name).arg("side", side)) {
+                if (shareKey == null) {
+                    runHere();
+                    return;
+                }
+
+                boolean[] ran = new boolean[1];
+                File ret = shared.compute(shareKey, () -> {
+                    ran[0] = true;
+                    runHere();
+                    artifacts.flush(output); // Other runtimes read it from disk
+                    return output;
+                });
+                if (!ran[0]) {
+                    output = ret;
+                    span.arg("reused", true);
+                    environment.logger.lifecycle(" > Reusing '" + name + "': " + ret);
+                }
+            }
+        }
+
+        private void runHere() throws Exception {
+            environment.logger.lifecycle(" > Running '" + name + "'");
+            arguments.replaceAll((key, value) -> value instanceof String ? applyStepOutputSubstitutions((String)value) : value);
+            if (!supportsInMemoryInputs()) {
+                // Forked tools and the like read their inputs from disk
+                for (Object value : arguments.values()) {
+                    if (value instanceof File)
+                        artifacts.flush((File)value);
+                }
+            }
+            execute();
+        }
+
+        private Object applyStepOutputSubstitutions(String value) {
+            Matcher matcher = OUTPUT_REPLACE_PATTERN.matcher(value);
+            if (!matcher.find()) return value; // Not a replaceable string
+
+            String stepName = matcher.group(1);
+            if (stepName != null) {
+                return environment.getStepOutput(stepName);
+            }
+            throw new IllegalStateException("The string '" + value + "' did not return a valid substitution match!");
+        }
+
         private File execute() throws Exception {
             try {
                 output = function.execute(environment);
@@ -194,6 +371,10 @@ public class MCPRuntime {
             return output;
         }
 
+        boolean supportsInMemoryInputs() {
+            return function.supportsInMemoryInputs();
+        }
+
         boolean isOfType(Class<? extends MCPFunction> type) {
             return type.isAssignableFrom(function.getClass());
         }
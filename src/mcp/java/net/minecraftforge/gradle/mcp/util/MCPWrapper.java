@@ -41,6 +41,7 @@ public class MCPWrapper {
     private final File root;
     private final MCPConfigV2 config;
     protected final Map<String, MCPRuntime> runtimes = Maps.newHashMap();
+    protected final SharedStepOutputs shared = new SharedStepOutputs();
 
     public MCPWrapper(File data, File root) throws IOException {
         this(HashFunction.SHA1.hash(data), data, root);
@@ -53,10 +54,10 @@ public class MCPWrapper {
         this.config = MCPConfigV2.getFromArchive(data);
     }
 
-    public MCPRuntime getRuntime(Project project, String side) {
+    public synchronized MCPRuntime getRuntime(Project project, String side) {
         MCPRuntime ret = runtimes.get(side);
         if (ret == null) {
-            ret = new MCPRuntime(project, data, config, side, new File(root, side), Collections.emptyMap());
+            ret = new MCPRuntime(project, data, config, side, new File(root, side), Collections.emptyMap(), shared);
             runtimes.put(side, ret);
         }
         return ret;
@@ -0,0 +1,89 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.mcp.util;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outputs of steps that are the same for several runtimes of one MCPConfig, such as the downloads every side starts
+ * with. Each is computed by whichever runtime gets to it first, and the others wait for it instead of running the
+ * same step again in their own directory.
+ * <p>
+ * Outputs are only kept while runtimes are executing alongside each other. Once the last one is done they are
+ * forgotten, so later executions run every step again, with its own up to date checks.
+ */
+public class SharedStepOutputs {
+    private final Map<String, CompletableFuture<File>> outputs = new ConcurrentHashMap<>();
+    private int executing;
+
+    /**
+     * Called when a runtime starts executing, must be followed by {@link #end()}.
+     */
+    synchronized void begin() {
+        executing++;
+    }
+
+    /**
+     * Called when a runtime is done executing, forgetting every output if no other runtime still is.
+     */
+    synchronized void end() {
+        if (--executing == 0)
+            outputs.clear();
+    }
+
+    /**
+     * Returns the output for the key, running the task if no other runtime has produced it yet, or if the output it
+     * produced failed or has since been deleted.
+     */
+    File compute(String key, Callable<File> task) throws Exception {
+        while (true) {
+            CompletableFuture<File> future = new CompletableFuture<>();
+            CompletableFuture<File> existing = outputs.putIfAbsent(key, future);
+            if (existing != null) {
+                File ret = null;
+                try {
+                    ret = existing.join();
+                } catch (CompletionException e) {
+                    // Failed for whoever ran it, let this runtime try and report its own error.
+                }
+                if (ret != null && ret.exists())
+                    return ret;
+                if (!outputs.replace(key, existing, future))
+                    continue;
+            }
+
+            try {
+                File ret = task.call();
+                future.complete(ret);
+                return ret;
+            } catch (Throwable t) {
+                outputs.remove(key, future);
+                future.completeExceptionally(t);
+                throw t;
+            }
+        }
+    }
+}
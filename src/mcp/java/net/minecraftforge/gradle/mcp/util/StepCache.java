@@ -0,0 +1,132 @@
+/*
+ * ForgeGradle
+ * Copyright (C) 2018 Forge Development LLC
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+
+package net.minecraftforge.gradle.mcp.util;
+
+import net.minecraftforge.gradle.common.util.HashFunction;
+import net.minecraftforge.gradle.common.util.Utils;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * Step outputs stored by the digest of everything that went into them, so a fresh checkout or another machine pointed
+ * at the same directory can take a step's output instead of running it. The directory can be on a shared file system.
+ * <p>
+ * Opt in with {@code -Dnet.minecraftforge.gradle.mcp.cache=<directory>}. Machines that should only read from it set
+ * {@code net.minecraftforge.gradle.mcp.cache.push=false}.
+ * <p>
+ * Each entry is written next to a {@code .sha1} of its contents, both through a temporary file and an atomic rename,
+ * and the checksum is written last. Entries are checked against it when taken, and ignored if they don't match, so a
+ * half written or damaged entry is never used.
+ */
+class StepCache {
+    @Nullable
+    private static final File ROOT = getRoot();
+    private static final boolean PUSH = Boolean.parseBoolean(System.getProperty("net.minecraftforge.gradle.mcp.cache.push", "true"));
+
+    static boolean isEnabled() {
+        return ROOT != null;
+    }
+
+    /**
+     * Copies the entry to the target, if there is one and it is intact.
+     *
+     * @return If the target was restored.
+     */
+    static boolean restore(String key, File target) throws IOException {
+        File entry = getEntry(key);
+        File checksum = new File(entry.getPath() + ".sha1");
+        if (!checksum.exists() || !entry.exists())
+            return false;
+
+        String expected = new String(Files.readAllBytes(checksum.toPath()), StandardCharsets.UTF_8).trim();
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        File tmp = File.createTempFile(target.getName(), ".tmp", parent);
+        try {
+            MessageDigest digest = HashFunction.SHA1.get();
+            try (InputStream in = new DigestInputStream(new FileInputStream(entry), digest);
+                 OutputStream out = new FileOutputStream(tmp)) {
+                IOUtils.copy(in, out);
+            }
+            String actual = HashFunction.SHA1.pad(new BigInteger(1, digest.digest()).toString(16));
+            if (!actual.equals(expected)) {
+                Files.deleteIfExists(checksum.toPath()); // Damaged, let the next build that runs the step replace it
+                return false;
+            }
+            Utils.moveAtomically(tmp, target);
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Adds an output to the cache, from memory if it is only held there.
+     */
+    static void store(String key, File output, @Nullable byte[] data) throws IOException {
+        if (!PUSH)
+            return;
+        File entry = getEntry(key);
+        File checksum = new File(entry.getPath() + ".sha1");
+        if (checksum.exists() && entry.exists())
+            return; // Someone else got there first
+
+        File parent = entry.getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        File tmp = File.createTempFile(entry.getName(), ".tmp", parent);
+        try {
+            MessageDigest digest = HashFunction.SHA1.get();
+            try (InputStream in = new DigestInputStream(data != null ? new ByteArrayInputStream(data) : new FileInputStream(output), digest);
+                 OutputStream out = new FileOutputStream(tmp)) {
+                IOUtils.copy(in, out);
+            }
+            Utils.moveAtomically(tmp, entry);
+            Utils.writeAtomically(checksum, HashFunction.SHA1.pad(new BigInteger(1, digest.digest()).toString(16)).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static File getEntry(String key) {
+        return new File(ROOT, key.substring(0, 2) + '/' + key);
+    }
+
+    @Nullable
+    private static File getRoot() {
+        String value = System.getProperty("net.minecraftforge.gradle.mcp.cache");
+        return value == null || value.trim().isEmpty() ? null : new File(value.trim()).getAbsoluteFile();
+    }
+}
@@ -175,6 +175,8 @@ public class PatcherPlugin implements Plugin<Project> {
             .add(MCPRepo.create(project))
             .add(MinecraftRepo.create(project))
             .attach(project);
+        // The bin patches need the client, server and joined jars, so set them up together.
+        MCPRepo.expectSides(project, "client", "server", "joined");
 
         hideLicense.configure(task -> task.doLast(_task -> MojangLicenseHelper.hide(project, extension.getMappingChannel().get(), extension.getMappingVersion().get())));
 
@@ -20,7 +20,6 @@
 
 package net.minecraftforge.gradle.patcher.task;
 
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.RegularFileProperty;
@@ -31,6 +30,8 @@ import org.gradle.api.tasks.TaskAction;
 
 import com.google.common.io.Files;
 import net.minecraftforge.gradle.common.util.Utils;
+import net.minecraftforge.gradle.common.util.ZipReader;
+import net.minecraftforge.gradle.common.util.ZipWriter;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -39,7 +40,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 public class FilterNewJar extends DefaultTask { //TODO: Copy task?
     private final RegularFileProperty input;
@@ -72,18 +72,16 @@ public class FilterNewJar extends DefaultTask { //TODO: Copy task?
         .filter(pts -> pts.length == 2 && !pts[0].endsWith("/"))
         .forEach(pts -> classes.add(pts[1]));
 
-        try (ZipFile zin = new ZipFile(input.get().getAsFile());
-             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(output.get().getAsFile()))){
+        try (ZipReader zin = new ZipReader(input.get().getAsFile());
+             ZipWriter out = new ZipWriter(new FileOutputStream(output.get().getAsFile()))){
 
-            Utils.forZip(zin, entry -> {
+            for (ZipReader.Entry entry : zin.getEntries()) {
                 if (entry.isDirectory() || filter.contains(entry.getName()) ||
                     (entry.getName().endsWith(".class") && isVanilla(classes, entry.getName().substring(0, entry.getName().length() - 6)))) {
-                    return;
+                    continue;
                 }
-                out.putNextEntry(Utils.getStableEntry(entry.getName()));
-                IOUtils.copy(zin.getInputStream(entry), out);
-                out.closeEntry();
-            });
+                out.copyEntry(entry, Utils.getStableEntry(entry.getName()));
+            }
         }
     }
 
@@ -41,13 +41,20 @@ import net.minecraftforge.gradle.common.task.DynamicJarExec;
 import net.minecraftforge.gradle.common.task.ExtractNatives;
 import net.minecraftforge.gradle.common.util.Artifact;
 import net.minecraftforge.gradle.common.util.BaseRepo;
+import net.minecraftforge.gradle.common.util.ContentStore;
 import net.minecraftforge.gradle.common.util.HashFunction;
 import net.minecraftforge.gradle.common.util.HashStore;
 import net.minecraftforge.gradle.common.util.MavenArtifactDownloader;
+import net.minecraftforge.gradle.common.util.MappingCache;
 import net.minecraftforge.gradle.common.util.McpNames;
 import net.minecraftforge.gradle.common.util.POMBuilder;
 import net.minecraftforge.gradle.common.util.RunConfig;
+import net.minecraftforge.gradle.common.util.SourceRenamer;
+import net.minecraftforge.gradle.common.util.Trace;
 import net.minecraftforge.gradle.common.util.Utils;
+import net.minecraftforge.gradle.common.util.ZipCompression;
+import net.minecraftforge.gradle.common.util.ZipReader;
+import net.minecraftforge.gradle.common.util.ZipWriter;
 import net.minecraftforge.gradle.mcp.MCPRepo;
 import net.minecraftforge.gradle.mcp.function.MCPFunction;
 import net.minecraftforge.gradle.mcp.function.MCPFunctionFactory;
@@ -78,10 +85,11 @@ import org.gradle.api.plugins.JavaPluginConvention;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
@@ -103,8 +111,6 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class MinecraftUserRepo extends BaseRepo {
     public static final boolean CHANGING_USERDEV = false; //Used when testing to update the userdev cache every 30 seconds.
@@ -125,7 +131,7 @@ public class MinecraftUserRepo extends BaseRepo {
     private final String AT_HASH;
     private final String MAPPING;
     private final boolean isPatcher;
-    private final Map<String, McpNames> mapCache = new HashMap<>();
+    private final ContentStore store;
     private boolean loadedParents = false;
     private Patcher parent;
     private MCP mcp;
@@ -157,6 +163,7 @@ public class MinecraftUserRepo extends BaseRepo {
     public MinecraftUserRepo(Project project, String group, String name, String version, List<File> ats, String mapping) {
         super(Utils.getCache(project, "minecraft_user_repo"), project.getLogger());
         this.project = project;
+        this.store = ContentStore.get(project);
         this.GROUP = group;
         this.NAME = name;
         this.VERSION = version;
@@ -417,8 +424,8 @@ public class MinecraftUserRepo extends BaseRepo {
             return findPom(mappings, rand);
         } else {
             switch (classifier) {
-                case "":        return findRaw(mappings);
-                case "sources": return findSource(mappings, true);
+                case "":        return Trace.time(Trace.begin("userdev", "raw").arg("mappings", mappings), () -> findRaw(mappings));
+                case "sources": return Trace.time(Trace.begin("userdev", "rename").arg("mappings", mappings), () -> findSource(mappings, true));
                 default:        return findExtraClassifier(mappings, classifier, ext);
             }
         }
@@ -550,7 +557,7 @@ public class MinecraftUserRepo extends BaseRepo {
             return null;
         }
 
-        File recomp = findRecomp(mapping, false);
+        File recomp = Trace.time(Trace.begin("userdev", "recompile").arg("mappings", mapping), () -> findRecomp(mapping, false));
         if (recomp != null) {
             debug("  Finding Raw: Returning Recomp: " + recomp);
             return recomp;
@@ -567,6 +574,7 @@ public class MinecraftUserRepo extends BaseRepo {
             debug("  Finding Raw: Cache Hit: " + bin);
         } else {
             debug("  Finding Raw: Cache Miss");
+            store.release(bin);
             StringBuilder baseAT = new StringBuilder();
 
             for (Patcher patcher = parent; patcher != null; patcher = patcher.parent) {
@@ -580,7 +588,7 @@ public class MinecraftUserRepo extends BaseRepo {
             debug("    HasAts: " + hasAts);
 
             Set<String> packages = new HashSet<>();
-            File srged = findBinpatched(packages);
+            File srged = Trace.time(Trace.begin("userdev", "binpatch"), () -> findBinpatched(packages));
 
             File mcinject = cacheRaw("mci", "jar");
 
@@ -597,12 +605,11 @@ public class MinecraftUserRepo extends BaseRepo {
             debug("    Creating MCP Inject Sources");
             //Build and inject MCP injected sources
             File inject_src = cacheRaw("inject_src", "jar");
-            try (ZipInputStream zin = new ZipInputStream(new FileInputStream(mcp.getZip()));
-                 ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(inject_src)) ) {
+            try (ZipReader zin = new ZipReader(mcp.getZip());
+                 ZipWriter zos = new ZipWriter(new FileOutputStream(inject_src), ZipCompression.INTERMEDIATE) ) {
                 String prefix = mcp.wrapper.getConfig().getData("inject");
                 String template = null;
-                ZipEntry entry = null;
-                while ((entry = zin.getNextEntry()) != null) {
+                for (ZipReader.Entry entry : zin.getEntries()) {
                     if (!entry.getName().startsWith(prefix) || entry.isDirectory())
                         continue;
 
@@ -619,11 +626,11 @@ public class MinecraftUserRepo extends BaseRepo {
 
                     String name = entry.getName().substring(prefix.length());
                     if ("package-info-template.java".equals(name)) {
-                        template = new String(IOUtils.toByteArray(zin), StandardCharsets.UTF_8);
+                        try (InputStream in = zin.getInputStream(entry)) {
+                            template = new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+                        }
                     } else {
-                        zos.putNextEntry(Utils.getStableEntry(name));
-                        IOUtils.copy(zin, zos);
-                        zos.closeEntry();
+                        zos.copyEntry(entry, Utils.getStableEntry(name));
                     }
                 }
 
@@ -644,14 +651,12 @@ public class MinecraftUserRepo extends BaseRepo {
             debug("    Injecting MCP Inject binairies");
             File injected = cacheRaw("injected", "jar");
             //Combine mci, and our recompiled MCP injected classes.
-            try (ZipInputStream zmci = new ZipInputStream(new FileInputStream(mcinject));
-                 ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(injected))) {
-                ZipEntry entry = null;
-                while ((entry = zmci.getNextEntry()) != null) {
-                    zout.putNextEntry(Utils.getStableEntry(entry.getName()));
-                    IOUtils.copy(zmci, zout);
-                    zout.closeEntry();
-                }
+            // Without mappings this jar is copied to bin as is
+            ZipCompression compression = mapping == null ? ZipCompression.OUTPUT : ZipCompression.INTERMEDIATE;
+            try (ZipReader zmci = new ZipReader(mcinject, true);
+                 ZipWriter zout = new ZipWriter(new FileOutputStream(injected), compression)) {
+                for (ZipReader.Entry entry : zmci.getEntries())
+                    zout.copyEntry(entry, Utils.getStableEntry(entry.getName()));
                 Files.walkFileTree(compiled.toPath(), new SimpleFileVisitor<Path>() {
                     @Override
                     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
@@ -707,6 +712,7 @@ public class MinecraftUserRepo extends BaseRepo {
             }
 
             debug("    Finished: " + bin);
+            store.intern(bin);
             Utils.updateHash(bin, HashFunction.SHA1);
             cache.save();
         }
@@ -780,20 +786,16 @@ public class MinecraftUserRepo extends BaseRepo {
 
             //Combine all universals and vanilla together.
             Set<String> added = new HashSet<>();
-            try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(merged))) {
+            try (ZipWriter zip = new ZipWriter(new FileOutputStream(merged), ZipCompression.INTERMEDIATE)) {
 
                 //Add binpatched, then vanilla. First seen overrides any other entries
                 for (File file : new File[] {binpatched, clean}) {
-                    try (ZipInputStream zin = new ZipInputStream(new FileInputStream(file))) {
-                        ZipEntry entry;
-                        while ((entry = zin.getNextEntry()) != null) {
+                    try (ZipReader zin = new ZipReader(file, true)) {
+                        for (ZipReader.Entry entry : zin.getEntries()) {
                             String name = entry.getName();
                             if (added.contains(name))
                                 continue;
-                            ZipEntry _new = new ZipEntry(name);
-                            _new.setTime(entry.getTime()); //Should be stable, but keeping time.
-                            zip.putNextEntry(_new);
-                            IOUtils.copy(zin, zip);
+                            zip.copyEntry(entry); //Should be stable, but keeping time.
                             added.add(name);
                         }
                     }
@@ -819,7 +821,7 @@ public class MinecraftUserRepo extends BaseRepo {
         }
     }
 
-    private void copyResources(ZipOutputStream zip, Set<String> added, boolean includeClasses) throws IOException {
+    private void copyResources(ZipWriter zip, Set<String> added, boolean includeClasses) throws IOException {
         Map<String, List<String>> servicesLists = new HashMap<>();
         Predicate<String> filter = (name) ->
             added.contains(name) ||
@@ -830,9 +832,8 @@ public class MinecraftUserRepo extends BaseRepo {
         Patcher patcher = parent;
         while (patcher != null) {
             if (patcher.getUniversal() != null) {
-                try (ZipInputStream zin = new ZipInputStream(new FileInputStream(patcher.getUniversal()))) {
-                    ZipEntry entry;
-                    while ((entry = zin.getNextEntry()) != null) {
+                try (ZipReader zin = new ZipReader(patcher.getUniversal())) {
+                    for (ZipReader.Entry entry : zin.getEntries()) {
                         String name = entry.getName();
                         if (filter.test(name))
                             continue;
@@ -843,12 +844,13 @@ public class MinecraftUserRepo extends BaseRepo {
                             List<String> existing = servicesLists.computeIfAbsent(name, k -> new ArrayList<>());
                             if (existing.size() > 0) existing.add("");
                             existing.add(String.format("# %s - %s", patcher.artifact, patcher.getUniversal().getCanonicalFile().getName()));
-                            existing.addAll(IOUtils.readLines(zin, StandardCharsets.UTF_8));
+                            try (InputStream in = zin.getInputStream(entry)) {
+                                existing.addAll(IOUtils.readLines(in, StandardCharsets.UTF_8));
+                            }
                         } else {
                             ZipEntry _new = new ZipEntry(name);
                             _new.setTime(0); //SHOULD be the same time as the main entry, but NOOOO _new.setTime(entry.getTime()) throws DateTimeException, so you get 0, screw you!
-                            zip.putNextEntry(_new);
-                            IOUtils.copy(zin, zip);
+                            zip.copyEntry(entry, _new);
                             added.add(name);
                         }
                     }
@@ -856,9 +858,8 @@ public class MinecraftUserRepo extends BaseRepo {
             }
             // Dev time specific files, such as launch helper.
             if (patcher.getInject() != null) {
-                try (ZipInputStream zin = new ZipInputStream(new FileInputStream(patcher.getZip()))) {
-                    ZipEntry entry;
-                    while ((entry = zin.getNextEntry()) != null) {
+                try (ZipReader zin = new ZipReader(patcher.getZip())) {
+                    for (ZipReader.Entry entry : zin.getEntries()) {
                         if (!entry.getName().startsWith(patcher.getInject()) || entry.getName().length() <= patcher.getInject().length())
                             continue;
 
@@ -870,12 +871,13 @@ public class MinecraftUserRepo extends BaseRepo {
                             List<String> existing = servicesLists.computeIfAbsent(name, k -> new ArrayList<>());
                             if (existing.size() > 0) existing.add("");
                             existing.add(String.format("# %s - %s", patcher.artifact, patcher.getZip().getCanonicalFile().getName()));
-                            existing.addAll(IOUtils.readLines(zin, StandardCharsets.UTF_8));
+                            try (InputStream in = zin.getInputStream(entry)) {
+                                existing.addAll(IOUtils.readLines(in, StandardCharsets.UTF_8));
+                            }
                         } else {
                             ZipEntry _new = new ZipEntry(name);
                             _new.setTime(0);
-                            zip.putNextEntry(_new);
-                            IOUtils.copy(zin, zip);
+                            zip.copyEntry(entry, _new);
                             added.add(name);
                         }
                     }
@@ -895,16 +897,6 @@ public class MinecraftUserRepo extends BaseRepo {
         }
     }
 
-    private McpNames loadMCPNames(String name, File data) throws IOException {
-        McpNames map = mapCache.get(name);
-        String hash = HashFunction.SHA1.hash(data);
-        if (map == null || !hash.equals(map.hash)) {
-            map = McpNames.load(data);
-            mapCache.put(name, map);
-        }
-        return map;
-    }
-
     private File findObfToSrg(IMappingFile.Format format) throws IOException {
         String ext = format.name().toLowerCase();
         File root = cache(mcp.getArtifact().getGroup().replace('.', '/'), mcp.getArtifact().getName(), mcp.getArtifact().getVersion());
@@ -941,7 +933,7 @@ public class MinecraftUserRepo extends BaseRepo {
         if (!cache.isSame() || !srg.exists()) {
             info("Creating SRG -> MCP TSRG");
             byte[] data = mcp.getData("mappings");
-            McpNames mcp_names = loadMCPNames(mapping, names);
+            McpNames mcp_names = MappingCache.getNames(names);
             IMappingFile obf_to_srg = IMappingFile.load(new ByteArrayInputStream(data));
             IMappingFile srg_to_named = obf_to_srg.reverse().chain(obf_to_srg).rename(new IRenamer() {
                 @Override
@@ -973,6 +965,7 @@ public class MinecraftUserRepo extends BaseRepo {
             debug("  Cache Hit");
         } else if (decomp.exists() || generate) {
             debug("  Decompiling");
+            store.release(decomp);
             File output = mcp.getStepOutput(isPatcher ? "joined" : NAME, null);
             if (parent != null && parent.getConfigV2() != null && parent.getConfigV2().processor != null) {
                 DataFunction data = parent.getConfigV2().processor;
@@ -1000,6 +993,7 @@ public class MinecraftUserRepo extends BaseRepo {
             } else {
                 FileUtils.copyFile(output, decomp);
             }
+            store.intern(decomp);
             cache.save();
             Utils.updateHash(decomp, HashFunction.SHA1);
         }
@@ -1007,7 +1001,7 @@ public class MinecraftUserRepo extends BaseRepo {
     }
 
     private File findPatched(boolean generate) throws IOException {
-        File decomp = findDecomp(generate);
+        File decomp = Trace.time(Trace.begin("userdev", "decomp"), () -> findDecomp(generate));
         if (decomp == null || !decomp.exists()) {
             debug("  Finding Patched: Decomp not found");
             return null;
@@ -1027,6 +1021,7 @@ public class MinecraftUserRepo extends BaseRepo {
             debug("    Cache Hit");
         } else if (patched.exists() || generate) {
             debug("    Generating");
+            store.release(patched);
             LinkedList<Patcher> parents = new LinkedList<>();
             Patcher patcher = parent;
             while (patcher != null) {
@@ -1071,10 +1066,10 @@ public class MinecraftUserRepo extends BaseRepo {
             if (failed)
                 throw new RuntimeException("Failed to apply patches to source file, see log for details: " + decomp);
 
-            try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(patched))) {
+            try (ZipWriter zout = new ZipWriter(new FileOutputStream(patched))) {
                 Set<String> added = new HashSet<>();
                 if (lastPatched != null) {
-                    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(lastPatched))) {
+                    try (ZipReader zin = new ZipReader(lastPatched, true)) {
                         added.addAll(Utils.copyZipEntries(zout, zin, e -> true));
                     }
                 }
@@ -1083,22 +1078,23 @@ public class MinecraftUserRepo extends BaseRepo {
                 patcher = parent;
                 while (patcher != null) {
                     if (patcher.getSources() != null) {
-                        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(patcher.getSources()))) {
+                        try (ZipReader zin = new ZipReader(patcher.getSources())) {
                             added.addAll(Utils.copyZipEntries(zout, zin, e -> !added.contains(e) && !e.startsWith("patches/"))); //Skip patches, as they are included in src for reference.
                         }
                     }
                     patcher = patcher.getParent();
                 }
-
-                cache.save();
-                Utils.updateHash(patched, HashFunction.SHA1);
             }
+
+            store.intern(patched);
+            cache.save();
+            Utils.updateHash(patched, HashFunction.SHA1);
         }
         return patched.exists() ? patched : null;
     }
 
     private File findSource(String mapping, boolean generate) throws IOException {
-        File patched = findPatched(generate);
+        File patched = Trace.time(Trace.begin("userdev", "patch"), () -> findPatched(generate));
         if (patched == null || !patched.exists()) {
             debug("  Finding Source: Patched not found");
             return null;
@@ -1132,7 +1128,7 @@ public class MinecraftUserRepo extends BaseRepo {
             IMappingFile obf_to_srg = IMappingFile.load(obf2srg);
             Set<String> vanilla = obf_to_srg.getClasses().stream().map(IMappingFile.INode::getMapped).collect(Collectors.toSet());
 
-            McpNames map = McpNames.load(names);
+            McpNames map = MappingCache.getNames(names);
 
             if (!sources.getParentFile().exists())
                 sources.getParentFile().mkdirs();
@@ -1141,24 +1137,15 @@ public class MinecraftUserRepo extends BaseRepo {
             Charset sourceFileCharset = parent == null || parent.getConfigV2() == null ? StandardCharsets.UTF_8 :
                     Charset.forName(parent.getConfigV2().getSourceFileCharset());
             debug("    Renaming Sources, Javadocs: " + addJavadocs);
-            try(ZipInputStream zin = new ZipInputStream(new FileInputStream(patched));
-                ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(sources))) {
-                ZipEntry _old;
-                while ((_old = zin.getNextEntry()) != null) {
-                    String name = _old.getName();
-                    zout.putNextEntry(Utils.getStableEntry(name));
-
-                    if (name.endsWith(".java")) {
-                        String mapped = map.rename(zin,
-                                addJavadocs && vanilla.contains(name.substring(0, name.length() - 5)),
-                                true, sourceFileCharset);
-                        IOUtils.write(mapped, zout, sourceFileCharset);
-                    } else {
-                        IOUtils.copy(zin, zout);
-                    }
-                }
+            store.release(sources);
+            try(ZipReader zin = new ZipReader(patched, true);
+                ZipWriter zout = new ZipWriter(new FileOutputStream(sources))) {
+                SourceRenamer.rename(zin, zout, name -> name.endsWith(".java"), (name, in, out) ->
+                    map.rename(new InputStreamReader(in, sourceFileCharset), new OutputStreamWriter(out, sourceFileCharset),
+                        addJavadocs && vanilla.contains(name.substring(0, name.length() - 5)), true));
             }
 
+            store.intern(sources);
             Utils.updateHash(sources, HashFunction.SHA1);
             cache.save();
         }
@@ -1166,7 +1153,7 @@ public class MinecraftUserRepo extends BaseRepo {
     }
 
     private File findRecomp(String mapping, boolean generate) throws IOException {
-        File source = findSource(mapping, generate);
+        File source = Trace.time(Trace.begin("userdev", "rename").arg("mappings", mapping), () -> findSource(mapping, generate));
         if (source == null || !source.exists()) {
             debug("  Finding Recomp: Sources not found");
             return null;
@@ -1197,7 +1184,8 @@ public class MinecraftUserRepo extends BaseRepo {
 
             debug("    Injecting resources");
             Set<String> added = new HashSet<>();
-            try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(recomp))) {
+            store.release(recomp);
+            try (ZipWriter zout = new ZipWriter(new FileOutputStream(recomp))) {
                 //Add all compiled code
                 Files.walkFileTree(compiled.toPath(), new SimpleFileVisitor<Path>() {
                     @Override
@@ -1214,6 +1202,7 @@ public class MinecraftUserRepo extends BaseRepo {
                 });
                 copyResources(zout, added, false);
             }
+            store.intern(recomp);
             Utils.updateHash(recomp, HashFunction.SHA1);
             cache.save();
         }
@@ -1463,7 +1452,7 @@ public class MinecraftUserRepo extends BaseRepo {
             try {
                 File mcp_dir = MinecraftUserRepo.this.cache("mcp", this.artifact.getVersion());
                 this.wrapper = new MCPWrapper(data, mcp_dir) {
-                    public MCPRuntime getRuntime(Project project, String side) {
+                    public synchronized MCPRuntime getRuntime(Project project, String side) {
                         MCPRuntime ret = runtimes.get(side);
                         if (ret == null) {
                             File dir = new File(wrapper.getRoot(), side);
@@ -1499,7 +1488,7 @@ public class MinecraftUserRepo extends BaseRepo {
                                 preDecomps.put("SideStripper", function);
                             }
 
-                            ret = new MCPRuntime(project, data, getConfig(), side, dir, preDecomps);
+                            ret = new MCPRuntime(project, data, getConfig(), side, dir, preDecomps, shared);
                             runtimes.put(side, ret);
                         }
                         return ret;
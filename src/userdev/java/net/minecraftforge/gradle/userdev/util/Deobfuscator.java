@@ -24,7 +24,6 @@ import net.minecraftforge.gradle.common.util.*;
 import net.minecraftforge.gradle.mcp.MCPRepo;
 import net.minecraftforge.gradle.userdev.task.RenameJarSrg2Mcp;
 
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
@@ -44,14 +43,12 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Random;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class Deobfuscator {
     private final Project project;
@@ -156,21 +153,12 @@ public class Deobfuscator {
                 .add("orig", original);
 
         if (!cache.isSame() || !output.exists()) {
-            McpNames map = McpNames.load(names);
-
-            try (ZipInputStream zin = new ZipInputStream(new FileInputStream(original));
-                 ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(output))) {
-                ZipEntry _old;
-                while ((_old = zin.getNextEntry()) != null) {
-                    zout.putNextEntry(Utils.getStableEntry(_old.getName()));
-
-                    if (_old.getName().endsWith(".java")) {
-                        String mapped = map.rename(zin, false);
-                        IOUtils.write(mapped, zout, StandardCharsets.UTF_8);
-                    } else {
-                        IOUtils.copy(zin, zout);
-                    }
-                }
+            McpNames map = MappingCache.getNames(names);
+
+            try (ZipReader zin = new ZipReader(original);
+                 ZipWriter zout = new ZipWriter(new FileOutputStream(output))) {
+                SourceRenamer.rename(zin, zout, name -> name.endsWith(".java"),
+                    (name, in, out) -> map.rename(new InputStreamReader(in, StandardCharsets.UTF_8), new OutputStreamWriter(out, StandardCharsets.UTF_8), false, true));
             }
 
             Utils.updateHash(output, HashFunction.SHA1);